@@ -0,0 +1,352 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.SerializedDatum;
+import cs224n.coref.*;
+import cs224n.ling.Tree;
+import cs224n.util.Indexer;
+import cs224n.util.LazyList;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A compact binary encoding of a SerializedDatum, as an alternative to the
+ * plaintext encoding in SerializedDatum.encode().
+ *
+ * Every string in the document (words, lemmas, tags, speakers, tree labels, the id)
+ * is stored once in a per-file string table, and referenced everywhere else by
+ * a variable-length integer id. Trees are flattened into a pre-order list of
+ * (label, number of children) records, and mentions and clusters into lists
+ * of integers. The layout is:
+ * <pre>
+ *   magic ("CRF1"), version
+ *   string table:  count, [byte length, UTF-8 bytes]*
+ *   document:      id, sentence count, [length, words*, lemmas*, POS*, NER*, speakers*, tree]*
+ *   gold mentions: count, [sentence, begin, end, head, tree]*
+ *   predicted mentions: (as gold mentions)
+ *   gold clusters: count, [size, gold mention index*]*
+ * </pre>
+ * All integers are unsigned varints (7 bits per byte, high bit set on all but the last byte).
+ * Unlike the plaintext format, the ANSI gloss is not stored.
+ * When decoding, the mention sections are only skipped over, and decoded on first access,
+ * so that a run using one set of mentions never builds the parses of the other.
+ */
+public class BinaryDatumCodec {
+  /** The file extension of binary encoded datums */
+  public static final String EXTENSION = ".bdat";
+  /** The current version of the format */
+  public static final int VERSION = 1;
+
+  private static final byte[] MAGIC = new byte[]{ 'C', 'R', 'F', '1' };
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private BinaryDatumCodec(){}
+
+  //--------------
+  // ENCODING
+  //--------------
+
+  /**
+   * Encode a datum into the binary format
+   * @param datum The datum to encode
+   * @return The encoded bytes
+   */
+  public static byte[] encode(SerializedDatum datum){
+    Indexer<String> strings = new Indexer<String>();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    //--Document
+    Document doc = datum.document;
+    writeVarInt(body, strings.addAndGetIndex(doc.id));
+    writeVarInt(body, doc.sentences.size());
+    Map<Sentence,Integer> sentenceIndex = new IdentityHashMap<Sentence,Integer>();
+    for(Sentence s : doc.sentences){
+      sentenceIndex.put(s, sentenceIndex.size());
+      writeVarInt(body, s.length());
+      writeColumn(body, strings, s.words);
+      writeColumn(body, strings, s.lemmas);
+      writeColumn(body, strings, s.posTags);
+      writeColumn(body, strings, s.nerTags);
+      writeColumn(body, strings, s.speakersOfWord);
+      writeTree(body, strings, s.parse);
+    }
+    //--Mentions
+    writeMentions(body, strings, sentenceIndex, datum.goldMentions);
+    writeMentions(body, strings, sentenceIndex, datum.predictedMentions);
+    //--Clusters
+    //(as in Entity.encode(), the last of a set of equal mentions wins)
+    HashMap<Mention,Integer> mentionIndex = new HashMap<Mention,Integer>();
+    for(int i=0; i<datum.goldMentions.size(); i++){
+      mentionIndex.put(datum.goldMentions.get(i), i);
+    }
+    writeVarInt(body, datum.goldClusters.size());
+    for(Entity e : datum.goldClusters){
+      writeVarInt(body, e.size());
+      for(Mention m : e.mentions){
+        Integer index = mentionIndex.get(m);
+        if(index == null){ throw new IllegalStateException("Cluster mention is not a gold mention: " + m); }
+        writeVarInt(body, index);
+      }
+    }
+    //--Header
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 16 * strings.size() + 16);
+    out.write(MAGIC, 0, MAGIC.length);
+    writeVarInt(out, VERSION);
+    writeVarInt(out, strings.size());
+    for(String str : strings){
+      byte[] bytes = str.getBytes(UTF8);
+      writeVarInt(out, bytes.length);
+      out.write(bytes, 0, bytes.length);
+    }
+    byte[] bodyBytes = body.toByteArray();
+    out.write(bodyBytes, 0, bodyBytes.length);
+    return out.toByteArray();
+  }
+
+  /**
+   * Encode a datum and write it to a file
+   * @param datum The datum to write
+   * @param file The file to write to
+   * @throws IOException If the file could not be written
+   */
+  public static void write(SerializedDatum datum, File file) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(encode(datum));
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeColumn(ByteArrayOutputStream out, Indexer<String> strings, List<String> column){
+    for(String value : column){
+      writeVarInt(out, strings.addAndGetIndex(value));
+    }
+  }
+
+  private static void writeTree(ByteArrayOutputStream out, Indexer<String> strings, Tree<String> tree){
+    List<Tree<String>> nodes = tree.getPreOrderTraversal();
+    writeVarInt(out, nodes.size());
+    for(Tree<String> node : nodes){
+      writeVarInt(out, strings.addAndGetIndex(node.getLabel()));
+      writeVarInt(out, node.getChildren().size());
+    }
+  }
+
+  private static void writeMentions(ByteArrayOutputStream out, Indexer<String> strings, Map<Sentence,Integer> sentenceIndex, List<Mention> mentions){
+    writeVarInt(out, mentions.size());
+    for(Mention m : mentions){
+      Integer sentence = sentenceIndex.get(m.sentence);
+      if(sentence == null){ throw new IllegalStateException("Mention's sentence is not in the document: " + m); }
+      writeVarInt(out, sentence);
+      writeVarInt(out, m.beginIndexInclusive);
+      writeVarInt(out, m.endIndexExclusive);
+      writeVarInt(out, m.headWordIndex);
+      writeTree(out, strings, m.parse);
+    }
+  }
+
+  static void writeVarInt(ByteArrayOutputStream out, int value){
+    if(value < 0){ throw new IllegalArgumentException("Cannot encode negative value: " + value); }
+    while((value & ~0x7F) != 0){
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  //--------------
+  // DECODING
+  //--------------
+
+  /**
+   * Decode a datum from the binary format.
+   * The buffer's position is advanced past the datum.
+   * @param in The buffer to read from
+   * @return The decoded datum
+   */
+  public static SerializedDatum decode(ByteBuffer in){
+    //--Header
+    for(byte b : MAGIC){
+      if(in.get() != b){ throw new IllegalStateException("Could not deserialize: not a binary datum"); }
+    }
+    int version = readVarInt(in);
+    if(version != VERSION){ throw new IllegalStateException("Could not deserialize: unknown version " + version); }
+    String[] strings = new String[readVarInt(in)];
+    for(int i=0; i<strings.length; i++){
+      int length = readVarInt(in);
+      if(in.hasArray()){
+        strings[i] = new String(in.array(), in.arrayOffset() + in.position(), length, UTF8);
+        in.position(in.position() + length);
+      } else {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        strings[i] = new String(bytes, UTF8);
+      }
+    }
+    //--Document
+    String id = strings[readVarInt(in)];
+    int numSentences = readVarInt(in);
+    List<Sentence> sentences = new ArrayList<Sentence>(numSentences);
+    for(int i=0; i<numSentences; i++){
+      int length = readVarInt(in);
+      List<String> words = readColumn(in, strings, length);
+      List<String> lemmas = readColumn(in, strings, length);
+      List<String> posTags = readColumn(in, strings, length);
+      List<String> nerTags = readColumn(in, strings, length);
+      List<String> speakers = readColumn(in, strings, length);
+      Tree<String> parse = readTree(in, strings);
+      sentences.add(Sentence.compactDecoding ? Sentence.compact(words, lemmas, posTags, nerTags, speakers, parse)
+          : new Sentence(words, lemmas, posTags, nerTags, speakers, parse));
+    }
+    Document doc = new Document(id, sentences);
+    //--Mentions
+    //(decoded on first access; only their bytes are copied now)
+    List<Mention> goldMentions = skipMentions(in, strings, doc);
+    List<Mention> predictedMentions = skipMentions(in, strings, doc);
+    //--Clusters
+    int numClusters = readVarInt(in);
+    final int[][] clusterIndices = new int[numClusters][];
+    for(int i=0; i<numClusters; i++){
+      clusterIndices[i] = new int[readVarInt(in)];
+      for(int k=0; k<clusterIndices[i].length; k++){
+        clusterIndices[i][k] = readVarInt(in);
+      }
+    }
+    final List<Mention> clusterMentions = goldMentions;
+    List<Entity> goldClusters = new LazyList<Entity>(numClusters){
+      protected List<Entity> compute() {
+        List<Entity> clusters = new ArrayList<Entity>(clusterIndices.length);
+        for(int[] indices : clusterIndices){
+          List<Mention> mentions = new ArrayList<Mention>(indices.length);
+          for(int index : indices){ mentions.add(clusterMentions.get(index)); }
+          clusters.add(new Entity(clusterMentions, mentions));
+        }
+        return clusters;
+      }
+    };
+    return new SerializedDatum(doc, goldMentions, predictedMentions, goldClusters);
+  }
+
+  /**
+   * Read a binary datum from a file
+   * @param file The file to read
+   * @return The decoded datum
+   * @throws IOException If the file could not be read
+   */
+  public static SerializedDatum read(File file) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while(buffer.hasRemaining()){
+        if(channel.read(buffer) < 0){ throw new EOFException("Unexpected end of file: " + file); }
+      }
+      buffer.flip();
+      SerializedDatum datum = decode(buffer);
+      if(buffer.hasRemaining()){ throw new IllegalStateException("Extra bytes in file: " + file); }
+      return datum;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static List<String> readColumn(ByteBuffer in, String[] strings, int length){
+    List<String> column = new ArrayList<String>(length);
+    for(int i=0; i<length; i++){
+      column.add(strings[readVarInt(in)]);
+    }
+    return column;
+  }
+
+  private static Tree<String> readTree(ByteBuffer in, String[] strings){
+    int numNodes = readVarInt(in);
+    //(the children lists still waiting to be filled, and how many children each is missing)
+    ArrayList<List<Tree<String>>> openChildren = new ArrayList<List<Tree<String>>>();
+    int[] missing = new int[numNodes];
+    int depth = 0;
+    Tree<String> root = null;
+    for(int i=0; i<numNodes; i++){
+      String label = strings[readVarInt(in)];
+      int numChildren = readVarInt(in);
+      Tree<String> node;
+      List<Tree<String>> children = null;
+      if(numChildren == 0){
+        node = new Tree<String>(label);
+      } else {
+        children = new ArrayList<Tree<String>>(numChildren);
+        node = new Tree<String>(label, children);
+      }
+      //(attach to parent)
+      if(depth == 0){
+        if(root != null){ throw new IllegalStateException("Could not deserialize: tree has multiple roots"); }
+        root = node;
+      } else {
+        openChildren.get(depth-1).add(node);
+        missing[depth-1] -= 1;
+      }
+      //(descend, or pop finished parents)
+      if(children != null){
+        if(openChildren.size() > depth){ openChildren.set(depth, children); } else { openChildren.add(children); }
+        missing[depth] = numChildren;
+        depth += 1;
+      } else {
+        while(depth > 0 && missing[depth-1] == 0){ depth -= 1; }
+      }
+    }
+    if(depth != 0 || root == null){ throw new IllegalStateException("Could not deserialize: truncated tree"); }
+    root.indexSpans();
+    return root;
+  }
+
+  /**
+   * Skip over a section of mentions, returning a list which decodes them on first access
+   * from a copy of the section's bytes
+   */
+  private static List<Mention> skipMentions(ByteBuffer in, final String[] strings, final Document doc){
+    int numMentions = readVarInt(in);
+    int start = in.position();
+    for(int i=0; i<numMentions; i++){
+      for(int k=0; k<4; k++){ readVarInt(in); }  // sentence, begin, end, head
+      int numNodes = readVarInt(in);
+      for(int k=0; k<2*numNodes; k++){ readVarInt(in); }  // label, number of children
+    }
+    final byte[] section = new byte[in.position() - start];
+    int end = in.position();
+    in.position(start);
+    in.get(section);
+    in.position(end);
+    return new LazyList<Mention>(numMentions){
+      protected List<Mention> compute() {
+        ByteBuffer sectionIn = ByteBuffer.wrap(section);
+        List<Mention> mentions = new ArrayList<Mention>(size());
+        for(int i=0; i<size(); i++){ mentions.add(readMention(sectionIn, strings, doc)); }
+        if(sectionIn.hasRemaining()){ throw new IllegalStateException("Could not deserialize: extra bytes in mention section"); }
+        return mentions;
+      }
+    };
+  }
+
+  private static Mention readMention(ByteBuffer in, String[] strings, Document doc){
+    Sentence sentence = doc.sentences.get(readVarInt(in));
+    int begin = readVarInt(in);
+    int end = readVarInt(in);
+    int head = readVarInt(in);
+    Tree<String> parse = readTree(in, strings);
+    return new Mention(doc, sentence, begin, end, parse, head);
+  }
+
+  static int readVarInt(ByteBuffer in){
+    int value = 0;
+    int shift = 0;
+    while(true){
+      byte b = in.get();
+      value |= (b & 0x7F) << shift;
+      if((b & 0x80) == 0){ return value; }
+      shift += 7;
+      if(shift > 28){ throw new IllegalStateException("Could not deserialize: malformed varint"); }
+    }
+  }
+}
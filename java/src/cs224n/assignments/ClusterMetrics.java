@@ -0,0 +1,293 @@
+package cs224n.assignments;
+
+import cs224n.util.Hungarian;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the coreference metrics other than MUC and B^3 over documents, from each
+ * document's contingency table (see ScoreKernel.Contingency):
+ * <ul>
+ *   <li>CEAF-m and CEAF-e (Luo 2005): the similarity of the best one-to-one alignment of gold and
+ *       response clusters, with the mention based (phi3) and entity based (phi4) similarities.</li>
+ *   <li>BLANC (Recasens and Hovy 2011, as extended to predicted mentions by Luo et al. 2014):
+ *       the average of the F1 over coreference links and the F1 over non-coreference links.</li>
+ *   <li>LEA (Moosavi and Strube 2016): the fraction of each cluster's links which are resolved,
+ *       weighted by the size of the cluster.</li>
+ * </ul>
+ * Like CoreferenceScore, only running sums are kept; every score is micro averaged over documents.
+ *
+ * The CEAF alignments are found with the Hungarian algorithm, but only over the clusters which
+ * share mentions: the bipartite graph of gold and response clusters with an edge for every
+ * nonempty cell is split into its connected components, and each component is solved on its own.
+ * A component of a single cell (the usual case) needs no solving at all.
+ */
+public class ClusterMetrics {
+  //(CEAF; the denominators are the similarity of each side to itself)
+  private long ceafMMatched = 0;
+  private long ceafMResponse = 0;
+  private long ceafMGold = 0;
+  private double ceafEMatched = 0.0;
+  private long ceafEResponse = 0;
+  private long ceafEGold = 0;
+  //(BLANC link counts)
+  private long corefKey = 0;
+  private long corefResponse = 0;
+  private long corefBoth = 0;
+  private long nonCorefKey = 0;
+  private long nonCorefResponse = 0;
+  private long nonCorefBoth = 0;
+  //(LEA)
+  private double leaPrecisionNumer = 0.0;
+  private long leaPrecisionDenom = 0;
+  private double leaRecallNumer = 0.0;
+  private long leaRecallDenom = 0;
+
+  /**
+   * Add a document to the metrics
+   * @param table The contingency table of the document's response and gold clusters
+   * @return This object
+   */
+  public ClusterMetrics add(ScoreKernel.Contingency table){
+    addCeaf(table);
+    addBlanc(table);
+    addLea(table);
+    return this;
+  }
+
+  //--CEAF
+
+  private void addCeaf(ScoreKernel.Contingency table){
+    int goldClusters = table.goldSize.length;
+    int responseClusters = table.responseSize.length;
+    int cells = table.cellCount;
+    //--Connected Components
+    //(nodes are the gold clusters, then the response clusters; cells are edges)
+    int[] parent = new int[goldClusters + responseClusters];
+    for(int i=0; i<parent.length; i++){ parent[i] = i; }
+    for(int k=0; k<cells; k++){
+      int a = find(parent, table.cellGold[k]);
+      int b = find(parent, goldClusters + table.cellResponse[k]);
+      if(a != b){ parent[a] = b; }
+    }
+    //(number the components which have cells, and each node within its component)
+    int[] component = new int[parent.length];
+    int[] local = new int[parent.length];
+    int[] componentGolds = new int[parent.length];
+    int[] componentResponses = new int[parent.length];
+    int[] componentCells = new int[parent.length + 1];
+    int components = 0;
+    Arrays.fill(component, -1);
+    for(int k=0; k<cells; k++){
+      int root = find(parent, table.cellGold[k]);
+      if(component[root] < 0){ component[root] = components++; }
+      componentCells[component[root] + 1] += 1;
+    }
+    for(int node=0; node<parent.length; node++){
+      int c = component[find(parent, node)];
+      if(c < 0){ continue; }  // a cluster sharing no mentions with the other side
+      if(node < goldClusters){
+        local[node] = componentGolds[c]++;
+      } else {
+        local[node] = componentResponses[c]++;
+      }
+    }
+    //(bucket the cells by component)
+    for(int c=0; c<components; c++){ componentCells[c + 1] += componentCells[c]; }
+    int[] bucketed = new int[cells];
+    int[] fill = new int[components];
+    System.arraycopy(componentCells, 0, fill, 0, components);
+    for(int k=0; k<cells; k++){
+      bucketed[fill[component[find(parent, table.cellGold[k])]]++] = k;
+    }
+    //--Align Each Component
+    long matchedM = 0;
+    double matchedE = 0.0;
+    for(int c=0; c<components; c++){
+      int start = componentCells[c];
+      int end = componentCells[c + 1];
+      if(end - start == 1){
+        //(case: a single cell; it is the alignment)
+        int k = bucketed[start];
+        matchedM += table.cellSize[k];
+        matchedE += phi4(table, k);
+        continue;
+      }
+      //(case: solve the component)
+      double[][] mWeights = new double[componentGolds[c]][componentResponses[c]];
+      double[][] eWeights = new double[componentGolds[c]][componentResponses[c]];
+      int[][] cellAt = new int[componentGolds[c]][componentResponses[c]];
+      for(int[] row : cellAt){ Arrays.fill(row, -1); }
+      for(int b=start; b<end; b++){
+        int k = bucketed[b];
+        int g = local[table.cellGold[k]];
+        int r = local[goldClusters + table.cellResponse[k]];
+        mWeights[g][r] = table.cellSize[k];
+        eWeights[g][r] = phi4(table, k);
+        cellAt[g][r] = k;
+      }
+      int[] mAlignment = Hungarian.maxWeightAssignment(mWeights);
+      int[] eAlignment = Hungarian.maxWeightAssignment(eWeights);
+      for(int g=0; g<mAlignment.length; g++){
+        if(mAlignment[g] >= 0 && cellAt[g][mAlignment[g]] >= 0){ matchedM += table.cellSize[cellAt[g][mAlignment[g]]]; }
+        if(eAlignment[g] >= 0 && cellAt[g][eAlignment[g]] >= 0){ matchedE += phi4(table, cellAt[g][eAlignment[g]]); }
+      }
+    }
+    //--Add
+    int nonemptyGold = 0;
+    for(int size : table.goldSize){ if(size > 0){ nonemptyGold += 1; } }
+    if(matchedM > Math.min(table.responseCount, table.goldCount) || matchedE > Math.min(responseClusters, nonemptyGold) + 1e-9){
+      throw new IllegalStateException("Bad CEAF alignment (not your fault!)");
+    }
+    ceafMMatched += matchedM;
+    ceafMResponse += table.responseCount;
+    ceafMGold += table.goldCount;
+    ceafEMatched += matchedE;
+    ceafEResponse += responseClusters;
+    ceafEGold += nonemptyGold;
+  }
+
+  /** The entity based similarity of the two clusters of a cell: 2|K and R| / (|K| + |R|) */
+  private static double phi4(ScoreKernel.Contingency table, int k){
+    return 2.0 * table.cellSize[k] / (double) (table.goldSize[table.cellGold[k]] + table.responseSize[table.cellResponse[k]]);
+  }
+
+  private static int find(int[] parent, int i){
+    int root = i;
+    while(parent[root] != root){ root = parent[root]; }
+    while(parent[i] != root){
+      int next = parent[i];
+      parent[i] = root;
+      i = next;
+    }
+    return root;
+  }
+
+  //--BLANC
+
+  private void addBlanc(ScoreKernel.Contingency table){
+    //(coreference links of each side, and of both)
+    long keyLinks = 0;
+    for(int size : table.goldSize){ keyLinks += pairs(size); }
+    long responseLinks = 0;
+    for(int size : table.responseSize){ responseLinks += pairs(size); }
+    long bothLinks = 0;
+    long common = 0;
+    int[] commonInGold = new int[table.goldSize.length];
+    int[] commonInResponse = new int[table.responseSize.length];
+    for(int k=0; k<table.cellCount; k++){
+      bothLinks += pairs(table.cellSize[k]);
+      common += table.cellSize[k];
+      commonInGold[table.cellGold[k]] += table.cellSize[k];
+      commonInResponse[table.cellResponse[k]] += table.cellSize[k];
+    }
+    //(non-coreference links, between mentions of the same document only;
+    // a link is in both if both its mentions are on both sides, in different clusters on each)
+    long bothNonLinks = pairs(common) + bothLinks;
+    for(int size : commonInGold){ bothNonLinks -= pairs(size); }
+    for(int size : commonInResponse){ bothNonLinks -= pairs(size); }
+    corefKey += keyLinks;
+    corefResponse += responseLinks;
+    corefBoth += bothLinks;
+    nonCorefKey += pairs(table.goldCount) - keyLinks;
+    nonCorefResponse += pairs(table.responseCount) - responseLinks;
+    nonCorefBoth += bothNonLinks;
+  }
+
+  private static long pairs(long n){ return n * (n - 1) / 2; }
+
+  //--LEA
+
+  private void addLea(ScoreKernel.Contingency table){
+    //(the resolved links of each cluster: the links it shares with each cluster of the other side)
+    long[] goldResolved = new long[table.goldSize.length];
+    long[] responseResolved = new long[table.responseSize.length];
+    for(int k=0; k<table.cellCount; k++){
+      int g = table.cellGold[k];
+      int r = table.cellResponse[k];
+      goldResolved[g] += pairs(table.cellSize[k]);
+      responseResolved[r] += pairs(table.cellSize[k]);
+      //(a singleton has a single self link, resolved if it is a singleton on the other side as well)
+      if(table.goldSize[g] == 1 && table.responseSize[r] == 1){
+        goldResolved[g] = 1;
+        responseResolved[r] = 1;
+      }
+    }
+    leaRecallNumer += importanceTimesResolution(table.goldSize, goldResolved);
+    leaRecallDenom += table.goldCount;
+    leaPrecisionNumer += importanceTimesResolution(table.responseSize, responseResolved);
+    leaPrecisionDenom += table.responseCount;
+  }
+
+  private static double importanceTimesResolution(int[] sizes, long[] resolved){
+    double sum = 0.0;
+    for(int c=0; c<sizes.length; c++){
+      if(sizes[c] == 0){ continue; }
+      long links = sizes[c] == 1 ? 1 : pairs(sizes[c]);
+      sum += sizes[c] * ((double) resolved[c] / (double) links);
+    }
+    return sum;
+  }
+
+  //--Scores
+
+  public double precisionCEAFm(){ return ratio(ceafMMatched, ceafMResponse); }
+  public double recallCEAFm(){ return ratio(ceafMMatched, ceafMGold); }
+  public double f1CEAFm(){ return f1(precisionCEAFm(), recallCEAFm()); }
+
+  public double precisionCEAFe(){ return ratio(ceafEMatched, ceafEResponse); }
+  public double recallCEAFe(){ return ratio(ceafEMatched, ceafEGold); }
+  public double f1CEAFe(){ return f1(precisionCEAFe(), recallCEAFe()); }
+
+  /**
+   * BLANC averages a score over coreference links with the same score over non-coreference links;
+   * if neither side has links of one kind (e.g., every cluster is a singleton), only the other kind counts.
+   */
+  public double precisionBLANC(){
+    return blanc(ratio(corefBoth, corefResponse), ratio(nonCorefBoth, nonCorefResponse));
+  }
+  public double recallBLANC(){
+    return blanc(ratio(corefBoth, corefKey), ratio(nonCorefBoth, nonCorefKey));
+  }
+  public double f1BLANC(){
+    return blanc(f1(ratio(corefBoth, corefResponse), ratio(corefBoth, corefKey)),
+                 f1(ratio(nonCorefBoth, nonCorefResponse), ratio(nonCorefBoth, nonCorefKey)));
+  }
+  private double blanc(double coref, double nonCoref){
+    if(corefKey == 0 && corefResponse == 0){ return nonCoref; }
+    if(nonCorefKey == 0 && nonCorefResponse == 0){ return coref; }
+    return (coref + nonCoref) / 2.0;
+  }
+
+  public double precisionLEA(){ return ratio(leaPrecisionNumer, leaPrecisionDenom); }
+  public double recallLEA(){ return ratio(leaRecallNumer, leaRecallDenom); }
+  public double f1LEA(){ return f1(precisionLEA(), recallLEA()); }
+
+  private static double ratio(double numer, double denom){
+    if(numer > denom || numer < 0){ throw new IllegalStateException("Bad score about to be returned (not your fault!)"); }
+    return denom == 0 ? 0.0 : numer / denom;
+  }
+
+  private static double f1(double prec, double rec){
+    return prec + rec == 0.0 ? 0.0 : 2.0*(prec*rec)/(prec+rec);
+  }
+
+  public void report(){
+    System.out.println("    CEAF-m");
+    System.out.println("CEAF-m Precision: " + precisionCEAFm());
+    System.out.println("CEAF-m Recall:    " + recallCEAFm());
+    System.out.println("CEAF-m F1:        " + f1CEAFm());
+    System.out.println("    CEAF-e");
+    System.out.println("CEAF-e Precision: " + precisionCEAFe());
+    System.out.println("CEAF-e Recall:    " + recallCEAFe());
+    System.out.println("CEAF-e F1:        " + f1CEAFe());
+    System.out.println("    BLANC");
+    System.out.println("BLANC Precision: " + precisionBLANC());
+    System.out.println("BLANC Recall:    " + recallBLANC());
+    System.out.println("BLANC F1:        " + f1BLANC());
+    System.out.println("    LEA");
+    System.out.println("LEA Precision: " + precisionLEA());
+    System.out.println("LEA Recall:    " + recallLEA());
+    System.out.println("LEA F1:        " + f1LEA());
+  }
+}
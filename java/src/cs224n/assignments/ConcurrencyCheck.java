@@ -0,0 +1,155 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.DataFormat;
+import cs224n.assignments.CoreferenceTester.DataType;
+import cs224n.assignments.CoreferenceTester.SerializedDatum;
+import cs224n.coref.ClusterAssignment;
+import cs224n.coref.ClusteredMention;
+import cs224n.coref.Mention;
+import cs224n.corefsystems.CoreferenceSystem;
+import cs224n.util.MetaClass;
+import cs224n.util.StringUtils;
+import cs224n.util.WeakReferenceList;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stress check of the coreference object model under concurrent, per-document processing.
+ * It trains a system, runs it over the dev (or test) documents once on a single thread,
+ * and then runs it over the same documents several more times on a pool of threads, with the
+ * documents in a different (random) order each round. Every concurrent run must cluster each
+ * document exactly as the serial run did, and every Entity created in a round must have a
+ * distinct unique id; otherwise the check fails with an exception.
+ *
+ * The system is shared by all threads, so its runCoreference() must be safe to call on
+ * different documents at the same time (as it is for the systems which only read what
+ * they learned in training).
+ *
+ * Usage: java cs224n.assignments.ConcurrencyCheck -path [data path] [-model RuleBased]
+ *          [-documents 100] [-data dev|test] [-mentionExtractor gold|predicted] [-format text]
+ *          [-threads N] [-rounds 5] [-seed 42]
+ */
+public class ConcurrencyCheck {
+
+  /** The result of running coreference on one document */
+  private static class Run {
+    private final int[] clusters;
+    private final int[] entityIds;
+    private Run(int[] clusters, int[] entityIds){
+      this.clusters = clusters;
+      this.entityIds = entityIds;
+    }
+  }
+
+  private final CoreferenceSystem system;
+  private final String mentionType;
+
+  private ConcurrencyCheck(CoreferenceSystem system, String mentionType){
+    this.system = system;
+    this.mentionType = mentionType;
+  }
+
+  private Run run(SerializedDatum datum){
+    //(the datum was processed before; start from unclustered mentions)
+    CoreferenceTester.resetCoreference(datum);
+    List<Mention> mentions = mentionType.equalsIgnoreCase("predicted") ? datum.predictedMentions : datum.goldMentions;
+    datum.document.setMentions(mentions);
+    List<ClusteredMention> guess = system.runCoreference(datum.document);
+    ClusterAssignment assignment = ClusterAssignment.fromClusteredMentions(datum.document, guess);
+    int[] clusters = new int[assignment.size()];
+    for(int i=0; i<clusters.length; i++){ clusters[i] = assignment.clusterOf(i); }
+    int[] entityIds = new int[guess.size()];
+    for(int i=0; i<entityIds.length; i++){ entityIds[i] = guess.get(i).entity.uniqueID; }
+    return new Run(clusters, entityIds);
+  }
+
+  /**
+   * Run every document once, concurrently, in the given order
+   * @return The number of documents whose clustering differed from the serial run
+   */
+  private int round(final List<SerializedDatum> data, final List<Run> expected, List<Integer> order,
+                    ExecutorService pool, Set<Integer> entityIds) throws InterruptedException {
+    final AtomicInteger mismatches = new AtomicInteger(0);
+    List<Future<Run>> futures = new ArrayList<Future<Run>>(order.size());
+    for(final int doc : order){
+      futures.add(pool.submit(new Callable<Run>(){
+        public Run call() {
+          Run actual = run(data.get(doc));
+          if(!Arrays.equals(actual.clusters, expected.get(doc).clusters)){ mismatches.incrementAndGet(); }
+          return actual;
+        }
+      }));
+    }
+    //(collect entity ids; every entity created in the round should have its own)
+    Map<Integer,Integer> entities = new HashMap<Integer,Integer>();
+    for(int i=0; i<futures.size(); i++){
+      Run actual;
+      try {
+        actual = futures.get(i).get();
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Coreference failed on document " + order.get(i), e.getCause());
+      }
+      for(int id : actual.entityIds){
+        Integer owner = entities.get(id);
+        if(owner != null && owner.intValue() != order.get(i)){
+          throw new IllegalStateException("Entity id " + id + " was given to entities of documents " + owner + " and " + order.get(i));
+        }
+        entities.put(id, order.get(i));
+      }
+    }
+    entityIds.addAll(entities.keySet());
+    return mismatches.get();
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    //--Get Properties
+    Properties props = StringUtils.argsToProperties(args);
+    CoreferenceTester.dataPath = props.getProperty("path", CoreferenceTester.dataPath);
+    CoreferenceTester.dataFormat = DataFormat.valueOf(props.getProperty("format", "text").toUpperCase());
+    String systemClass = props.getProperty("model", "RuleBased");
+    if(!systemClass.contains(".")){ systemClass = "cs224n.corefsystems." + systemClass; }
+    int numDocs = Integer.parseInt(props.getProperty("documents", "100"));
+    DataType dataType = DataType.valueOf(props.getProperty("data", "dev").toUpperCase());
+    String mentionType = props.getProperty("mentionExtractor", "gold");
+    int numThreads = Integer.parseInt(props.getProperty("threads", "" + Math.max(2, 2 * Runtime.getRuntime().availableProcessors())));
+    int rounds = Integer.parseInt(props.getProperty("rounds", "5"));
+    Random rand = new Random(Long.parseLong(props.getProperty("seed", "42")));
+    //--Train
+    System.out.print("Training " + systemClass + " on " + numDocs + " documents...");
+    CoreferenceSystem system = MetaClass.create(systemClass).createInstance();
+    new CoreferenceTester<CoreferenceSystem>(system).train(CoreferenceTester.getData(CoreferenceTester.dataPath, DataType.TRAIN, numDocs, "first"), props);
+    System.out.println("done");
+    //--Read Data
+    //(all documents are kept in memory, so that every round runs on the same objects)
+    WeakReferenceList.RefreshFunction<SerializedDatum> source = CoreferenceTester.getData(CoreferenceTester.dataPath, dataType,
+        dataType == DataType.TEST ? CoreferenceTester.NUM_TEST_EXAMPLES : CoreferenceTester.NUM_DEV_EXAMPLES, "first");
+    List<SerializedDatum> data = new ArrayList<SerializedDatum>(source.size());
+    for(int i=0; i<source.size(); i++){ data.add(source.get(i)); }
+    //--Serial Run
+    ConcurrencyCheck check = new ConcurrencyCheck(system, mentionType);
+    List<Run> expected = new ArrayList<Run>(data.size());
+    for(SerializedDatum datum : data){ expected.add(check.run(datum)); }
+    System.out.println("Serial run: " + data.size() + " " + dataType + " documents");
+    //--Concurrent Runs
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    int failures = 0;
+    try {
+      List<Integer> order = new ArrayList<Integer>(data.size());
+      for(int i=0; i<data.size(); i++){ order.add(i); }
+      for(int r=0; r<rounds; r++){
+        Collections.shuffle(order, rand);
+        Set<Integer> entityIds = new HashSet<Integer>();
+        int mismatches = check.round(data, expected, order, pool, entityIds);
+        System.out.println("Round " + (r + 1) + " (" + numThreads + " threads): " + mismatches + " of " + data.size() +
+            " documents clustered differently; " + entityIds.size() + " distinct entity ids");
+        failures += mismatches;
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    if(failures > 0){ throw new IllegalStateException(failures + " concurrent runs disagreed with the serial run"); }
+    System.out.println("OK");
+  }
+}
@@ -1,18 +1,21 @@
 package cs224n.assignments;
 
+import cs224n.coref.ClusterAssignment;
 import cs224n.coref.ClusteredMention;
 import cs224n.coref.Document;
 import cs224n.coref.Entity;
 import cs224n.coref.Mention;
+import cs224n.coref.Sentence;
 import cs224n.corefsystems.BaselineCoreferenceSystem;
+import cs224n.corefsystems.ConcurrentCoreferenceSystem;
 import cs224n.corefsystems.CoreferenceSystem;
+import cs224n.corefsystems.FlatCoreferenceSystem;
 import cs224n.util.*;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
 import java.util.PriorityQueue;
+import java.util.concurrent.*;
 
 /**
  * The framework for running your coreference system.
@@ -25,18 +28,51 @@ import java.util.PriorityQueue;
  * @author Gabor Angeli (angeli at cs.stanford)
  */
 public class CoreferenceTester<SYS extends CoreferenceSystem> {
-  private static final int NUM_TEST_EXAMPLES = 202;
-  private static final int NUM_DEV_EXAMPLES = 63;
+  static final int NUM_TEST_EXAMPLES = 202;
+  static final int NUM_DEV_EXAMPLES = 63;
   private static final int MAX_TRAIN_EXAMPLES = 1600;
-  private static final boolean plaintext = true;
 
   public static String dataPath = "/afs/ir/class/cs224n/data/pa3";
+  public static DataFormat dataFormat = DataFormat.TEXT;
+  /** If true, decoded plaintext mentions share their parse with the sentence's parse tree where possible */
+  public static boolean shareMentionParses = false;
+  /** If true, the attributes of each document's mentions are computed on the decoding threads (see Document.attributes()) */
+  public static boolean precomputeAttributes = false;
+  /** If true, every document's score computed by ScoreKernel is checked against the entity based scorer */
+  public static boolean checkScores = false;
+  /** If true, scores also include CEAF, BLANC and LEA (see ClusterMetrics) */
+  public static boolean reportMetrics = false;
+  /** If not null, the time spent in each phase of the run is recorded here */
+  public static RunProfile profile = null;
+  /** If not null, decoded datums are saved to (and later read from) these snapshots */
+  public static SnapshotCache snapshots = null;
 
   public static enum DataType {
     TRAIN, DEV, TEST
   }
 
+  /**
+   * The on-disk encodings a SerializedDatum can be stored in, each identified by its file extension.
+   */
+  public static enum DataFormat {
+    TEXT(".dat"), BINARY(BinaryDatumCodec.EXTENSION), SERIALIZED(".ser.gz"), PACKED(MappedCorpus.EXTENSION);
+
+    public final String extension;
+    private DataFormat(String extension){
+      this.extension = extension;
+    }
+
+    public static DataFormat forFile(File file){
+      for(DataFormat format : values()){
+        if(file.getName().endsWith(format.extension)){ return format; }
+      }
+      throw new IllegalArgumentException("Unknown datum format: " + file);
+    }
+  }
+
   public static class SerializedDatum implements Serializable, Decodable {
+    //(the implicit id of the original class; existing .ser.gz data was written with it)
+    private static final long serialVersionUID = -489447122208730143L;
     public final Document document;
     public final List<Mention> goldMentions;
     public final List<Mention> predictedMentions;
@@ -69,70 +105,164 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       }
       b.append("(end predicted mentions)\n");
       b.append("---------gold clusters--------\n");
+      Map<Mention,Integer> indices = Entity.indexMentions(goldMentions);
       for(Entity e : goldClusters){
-        b.append(e.encode()).append(" | ").append(e).append("\n");
+        b.append(e.encode(indices)).append(" | ").append(e).append("\n");
       }
       b.append("(end gold clusters)");
       return b.toString();
     }
 
     public static SerializedDatum decode(String encoded){
-      String[] lines = encoded.split("\n");
-      int index = 0;
-      //--Gloss
-      if(!lines[0].equals("---------gloss--------")){ throw new IllegalStateException("Could not deserialize"); }
-      index += 1;
-      while(!lines[index].equals("(end gloss)")){
-        index += 1;
+      try {
+        return decode(new StringReader(encoded));
+      } catch (IOException e) {
+        throw new RuntimeException(e);  // can't happen reading from a String
       }
-      index += 1;
+    }
+
+    /**
+     * Decode a datum in a single pass over a stream of characters.
+     * The gloss is skipped without being stored, and sentences are decoded line by line
+     * as they are read, so that the encoded text is never held in memory as a whole.
+     * The mention and cluster sections are only copied, and are decoded the first time
+     * they are accessed (see LazyList); a run with gold mentions never parses the
+     * predicted mentions, and vice versa.
+     * @param reader The encoded datum, as written by encode()
+     * @return The decoded datum
+     * @throws IOException If the underlying reader fails
+     */
+    public static SerializedDatum decode(Reader reader) throws IOException {
+      LineCursor in = new LineCursor(reader);
+      CharSequence line;
+      //--Gloss
+      expectLine(in, "---------gloss--------");
+      if(!in.skipPast("(end gloss)")){ throw new IllegalStateException("Could not deserialize"); }
       //--Sentences
-      if(!lines[index].equals("---------document--------")){ throw new IllegalStateException("Could not deserialize"); }
-      index += 1;
-      StringBuilder encodedDoc = new StringBuilder();
-      while(!lines[index].equals("(end document)")){
-        encodedDoc.append(lines[index]).append("\n");
-        index += 1;
-      }
-      index += 1;
-      Document doc = Document.decode(encodedDoc.toString());
+      expectLine(in, "---------document--------");
+      Document doc = Document.decode(in);
+      if(!in.skipPast("(end document)")){ throw new IllegalStateException("Could not deserialize"); }
       //--Gold Mentions
-      if(!lines[index].equals("---------gold mentions--------")){ throw new IllegalStateException("Could not deserialize"); }
-      index += 1;
-      List<Mention> goldMentions = new ArrayList<Mention>();
-      while(!lines[index].equals("(end gold mentions)")){
-        goldMentions.add(Mention.decode(lines[index], doc));
-        index += 1;
-      }
-      index += 1;
+      expectLine(in, "---------gold mentions--------");
+      StringBuilder section = new StringBuilder();
+      int count = readSection(in, "(end gold mentions)", section);
+      List<Mention> goldMentions = new LazyMentions(count, section.toString(), doc, shareMentionParses);
       //--Predicted Mentions
-      if(!lines[index].equals("---------predicted mentions--------")){ throw new IllegalStateException("Could not deserialize"); }
-      index += 1;
-      List<Mention> predictedMentions = new ArrayList<Mention>();
-      while(!lines[index].equals("(end predicted mentions)")){
-        predictedMentions.add(Mention.decode(lines[index], doc));
-        index += 1;
-      }
-      index += 1;
+      expectLine(in, "---------predicted mentions--------");
+      section.setLength(0);
+      count = readSection(in, "(end predicted mentions)", section);
+      List<Mention> predictedMentions = new LazyMentions(count, section.toString(), doc, shareMentionParses);
       //--Gold Clusters
-      if(!lines[index].equals("---------gold clusters--------")){ throw new IllegalStateException("Could not deserialize"); }
-      index += 1;
-      List<Entity> goldCLusters = new ArrayList<Entity>();
-      while(!lines[index].equals("(end gold clusters)")){
-        goldCLusters.add(Entity.decode(lines[index].substring(0,lines[index].indexOf(" |")), goldMentions));
-        index += 1;
-      }
-      index += 1;
+      expectLine(in, "---------gold clusters--------");
+      section.setLength(0);
+      count = 0;
+      while(!LineCursor.lineEquals(line = in.nextLine(), "(end gold clusters)")){
+        if(line == null){ throw new IllegalStateException("Could not deserialize"); }
+        //(keep only the mention indices; the gloss after the bar is not needed)
+        int bar = 0;
+        while(bar < line.length() - 1 && !(line.charAt(bar) == ' ' && line.charAt(bar+1) == '|')){ bar += 1; }
+        if(bar >= line.length() - 1){ throw new IllegalStateException("Could not deserialize cluster: " + line); }
+        section.append(line, 0, bar).append('\n');
+        count += 1;
+      }
+      List<Entity> goldCLusters = new LazyClusters(count, section.toString(), goldMentions);
       //--Return
-      if(index != lines.length){ throw new IllegalStateException("Extra lines in file: " + index + " read of " + lines.length); }
+      //(trailing blank lines are fine)
+      while((line = in.nextLine()) != null){
+        if(line.length() > 0){ throw new IllegalStateException("Extra lines in file after gold clusters: " + line); }
+      }
       return new SerializedDatum(doc,goldMentions,predictedMentions,goldCLusters);
     }
+
+    /**
+     * Copy the lines of a section, up to its end marker, into a buffer (one line per '\n')
+     * @return The number of lines copied
+     */
+    private static int readSection(LineCursor in, String endMarker, StringBuilder section) throws IOException {
+      CharSequence line;
+      int count = 0;
+      while(!LineCursor.lineEquals(line = in.nextLine(), endMarker)){
+        if(line == null){ throw new IllegalStateException("Could not deserialize"); }
+        section.append(line).append('\n');
+        count += 1;
+      }
+      return count;
+    }
+
+    private static void expectLine(LineCursor in, String expected) throws IOException {
+      if(!LineCursor.lineEquals(in.nextLine(), expected)){ throw new IllegalStateException("Could not deserialize"); }
+    }
+
+    /** The mentions of a section, decoded from their encoded lines on first access */
+    private static class LazyMentions extends LazyList<Mention> {
+      private static final long serialVersionUID = 1L;
+      private final Document doc;
+      private final boolean shareParses;
+      private String encoded;
+      private LazyMentions(int size, String encoded, Document doc, boolean shareParses){
+        super(size);
+        this.encoded = encoded;
+        this.doc = doc;
+        this.shareParses = shareParses;
+      }
+      protected List<Mention> compute() {
+        List<Mention> mentions = new ArrayList<Mention>(size());
+        int start = 0;
+        while(start < encoded.length()){
+          int end = encoded.indexOf('\n', start);
+          mentions.add(Mention.decode(encoded.subSequence(start, end), doc, shareParses));
+          start = end + 1;
+        }
+        encoded = null;  // no longer needed
+        return mentions;
+      }
+    }
+
+    /** The gold clusters, decoded from their mention indices on first access */
+    private static class LazyClusters extends LazyList<Entity> {
+      private static final long serialVersionUID = 1L;
+      private final List<Mention> goldMentions;
+      private String encoded;
+      private LazyClusters(int size, String encoded, List<Mention> goldMentions){
+        super(size);
+        this.encoded = encoded;
+        this.goldMentions = goldMentions;
+      }
+      protected List<Entity> compute() {
+        List<Entity> clusters = new ArrayList<Entity>(size());
+        int start = 0;
+        while(start < encoded.length()){
+          int end = encoded.indexOf('\n', start);
+          clusters.add(Entity.decode(encoded, start, end, goldMentions));
+          start = end + 1;
+        }
+        encoded = null;  // no longer needed
+        return clusters;
+      }
+    }
   }
 
+  /**
+   * Accumulates MUC and B^3 scores over documents. Each document's contribution (the numerator
+   * and denominator of each score) is computed when the document is entered, and only the running
+   * sums are kept, along with each document's contribution (a few numbers, for SignificanceTest);
+   * neither the entities nor the documents are retained.
+   * With reportMetrics set, the other metrics of ClusterMetrics are accumulated and reported as well.
+   */
   public static class CoreferenceScore {
-    private Collection<Entity> responses = new ArrayList<Entity>();
-    private Collection<Entity> keys = new ArrayList<Entity>();
-
+    //(running sums)
+    private long mucPrecisionNumer = 0;
+    private long mucPrecisionDenom = 0;
+    private long mucRecallNumer = 0;
+    private long mucRecallDenom = 0;
+    private double b3PrecisionNumer = 0.0;
+    private double b3PrecisionDenom = 0.0;
+    private double b3RecallNumer = 0.0;
+    private double b3RecallDenom = 0.0;
+    //(each document's contribution, in the order entered)
+    private final List<ScoreKernel.Counts> documentCounts = new ArrayList<ScoreKernel.Counts>();
+    //(other metrics, if requested)
+    private final ClusterMetrics metrics = reportMetrics ? new ClusterMetrics() : null;
 
     public void report(){
       System.out.println("    MUC");
@@ -143,16 +273,27 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       System.out.println("B^3 Precision: " + precisionB3());
       System.out.println("B^3 Recall:    " + recallB3());
       System.out.println("B^3 F1:        " + f1B3());
+      if(metrics != null){ metrics.report(); }
     }
 
+    /**
+     * @return The other metrics (CEAF, BLANC and LEA), or null if reportMetrics was not set
+     */
+    public ClusterMetrics metrics(){ return metrics; }
+
+    /**
+     * @return The contribution of every document entered to the MUC and B^3 scores, in the order entered
+     */
+    public List<ScoreKernel.Counts> documentCounts(){ return Collections.unmodifiableList(documentCounts); }
+
     public double precisionMUC(){
-      double prec = precisionMUC(responses,keys);
+      double prec = muc(mucPrecisionNumer, mucPrecisionDenom);
 //      double check = recallMUC(keys, responses);
 //      if(Math.abs(prec-check) > 1e-6){ throw new IllegalStateException("MUC scores do not agree (not your fault)!"); }
       return prec;
     }
     public double recallMUC(){
-      double recall = precisionMUC(keys,responses);
+      double recall = muc(mucRecallNumer, mucRecallDenom);
 //      double check = recallMUC(responses, keys);
 //      if(Math.abs(recall-check) > 1e-6){ throw new IllegalStateException("MUC scores do not agree (not your fault)!"); }
       return recall;
@@ -164,10 +305,10 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
     }
 
     public double precisionB3(){
-      return precisionB3(responses,keys);
+      return b3(b3PrecisionNumer, b3PrecisionDenom);
     }
     public double recallB3(){
-      return precisionB3(keys,responses);
+      return b3(b3RecallNumer, b3RecallDenom);
     }
     public double f1B3(){
       double prec = precisionB3();
@@ -209,9 +350,11 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
     }
 
     /**
-     * Adapted from the JavaNLP code
+     * Adapted from the JavaNLP code.
+     * @return The numerator and denominator of the B^3 precision of the guesses
+     *         (or the recall, if the arguments are swapped)
      */
-    private static double precisionB3(Collection<Entity> guesses, Collection<Entity> golds){
+    private static double[] b3Sums(Collection<Entity> guesses, Collection<Entity> golds){
       //--Variables
       //(gold map)
       Map<Mention,Entity> goldMap = new HashMap<Mention,Entity>();
@@ -263,7 +406,11 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
         numer += n;
         denom += (double) doc.getMentions().size();
       }
-      //--Return Score
+      //--Return Sums
+      return new double[]{ numer, denom };
+    }
+
+    private static double b3(double numer, double denom){
       if(numer > denom || numer < 0 || denom <= 0){
         throw new IllegalStateException("Bad B Cubed score about to be returned (not your fault)!");
       }
@@ -274,9 +421,10 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
      * As per Vilain 1995: "A Model Theoretic Coreference Scoring Scheme" (http://acl.ldc.upenn.edu/M/M95/M95-1005.pdf)
      * @param responses The system's guessed clusters
      * @param keys The true clusters
-     * @return A precision (between 0 and 1) score
+     * @return The numerator and denominator of the MUC precision of the responses
+     *         (or the recall, if the arguments are swapped)
      */
-    private static double precisionMUC(Collection<Entity> responses, Collection<Entity> keys){
+    private static long[] mucCounts(Collection<Entity> responses, Collection<Entity> keys){
       //--Auxilliary Structures
       //(populate key map)
       Map<Mention,Entity> keyMap = new HashMap<Mention,Entity>();
@@ -318,6 +466,12 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
         int S = response.size();
         denom += S-1;
       }
+      //--Return
+      //(the sums are checked once all documents are entered; see muc())
+      return new long[]{ numer, denom };
+    }
+
+    private static double muc(long numer, long denom){
       //--Error Checks
       if(numer > denom){ throw new IllegalStateException("MUC precision is broken (not your fault!)"); }
       if(denom == 0){
@@ -329,10 +483,98 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
     }
 
     public CoreferenceScore enter(Document doc, Collection<ClusteredMention> guess, Collection<Entity> gold){
-      responses.addAll(Entity.fromMentions(guess));
-      keys.addAll(gold);
+      if(metrics != null){ metrics.add(contingency(ClusterAssignment.fromClusteredMentions(doc, guess), gold)); }
+      return add(referenceCounts(Entity.fromMentions(guess), gold));
+    }
+
+    /**
+     * Add a document to the score, computing its contribution with the array based ScoreKernel.
+     * If checkScores is set, the contribution is also computed from the entities, and the two must agree exactly.
+     * @param doc The document
+     * @param guess The system's clustering of the document's mentions
+     * @param gold The true clusters of the document
+     * @return This score
+     */
+    public CoreferenceScore enter(Document doc, ClusterAssignment guess, Collection<Entity> gold){
+      ScoreKernel.Contingency table = contingency(guess, gold);
+      ScoreKernel.Counts counts = ScoreKernel.score(table);
+      if(checkScores){
+        ScoreKernel.Counts reference = referenceCounts(guess.toEntities(), gold);
+        if(!reference.equals(counts)){
+          throw new IllegalStateException("Scoring kernel disagrees on document " + doc + ": " + counts + " vs. " + reference + " (not your fault!)");
+        }
+      }
+      if(metrics != null){ metrics.add(table); }
+      return add(counts);
+    }
+
+    private CoreferenceScore add(ScoreKernel.Counts counts){
+      mucPrecisionNumer += counts.mucPrecisionNumer;
+      mucPrecisionDenom += counts.mucPrecisionDenom;
+      mucRecallNumer += counts.mucRecallNumer;
+      mucRecallDenom += counts.mucRecallDenom;
+      b3PrecisionNumer += counts.b3PrecisionNumer;
+      b3PrecisionDenom += counts.b3PrecisionDenom;
+      b3RecallNumer += counts.b3RecallNumer;
+      b3RecallDenom += counts.b3RecallDenom;
+      documentCounts.add(counts);
       return this;
     }
+
+    /**
+     * The contingency table of a document's response and gold clusters, from the mentions' cluster labels
+     */
+    static ScoreKernel.Contingency contingency(ClusterAssignment guess, Collection<Entity> gold){
+      //(number the mentions: the system's mentions first, then any other gold mentions)
+      int goldMentions = 0;
+      for(Entity e : gold){ goldMentions += e.size(); }
+      Map<Mention,Integer> slots = Entity.indexMentions(guess.mentions);
+      int[] response = new int[guess.size() + goldMentions];
+      int[] goldLabels = new int[response.length];
+      Arrays.fill(response, -1);
+      Arrays.fill(goldLabels, -1);
+      for(int i=0; i<guess.size(); i++){ response[i] = guess.clusterOf(i); }
+      //(label the gold mentions)
+      int next = guess.size();
+      int cluster = 0;
+      for(Entity e : gold){
+        for(Mention m : e.mentions){
+          Integer slot = slots.get(m);
+          if(slot == null){
+            slot = next++;
+            slots.put(m, slot);
+          }
+          if(goldLabels[slot] >= 0){ throw new IllegalStateException("Mention mapped to multiple entities (in gold! you're all sorts of broken...): " + m); }
+          goldLabels[slot] = cluster;
+        }
+        cluster += 1;
+      }
+      //(score)
+      if(next < response.length){
+        int[] trimmed = new int[next];
+        System.arraycopy(response, 0, trimmed, 0, next);
+        response = trimmed;
+        trimmed = new int[next];
+        System.arraycopy(goldLabels, 0, trimmed, 0, next);
+        goldLabels = trimmed;
+      }
+      return ScoreKernel.contingency(response, guess.clusterCount(), guess.size(), goldLabels, cluster);
+    }
+
+    /**
+     * A document's contribution to the scores, computed from its entities
+     * (by the original implementation, which ScoreKernel is checked against; see ScoreCheck)
+     * @param responses The system's clusters of the document's mentions
+     * @param keys The true clusters of the document
+     */
+    static ScoreKernel.Counts referenceCounts(Collection<Entity> responses, Collection<Entity> keys){
+      long[] mucPrecision = mucCounts(responses, keys);
+      long[] mucRecall = mucCounts(keys, responses);
+      double[] b3Precision = b3Sums(responses, keys);
+      double[] b3Recall = b3Sums(keys, responses);
+      return new ScoreKernel.Counts(mucPrecision[0], mucPrecision[1], mucRecall[0], mucRecall[1],
+          b3Precision[0], b3Precision[1], b3Recall[0], b3Recall[1]);
+    }
   }
 
   public static String conllData(DataType type){
@@ -357,19 +599,24 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
 
   private SYS system;
 
-  private CoreferenceTester(SYS system){
+  CoreferenceTester(SYS system){
     this.system = system;
   }
 
-  public CoreferenceScore train(final File[] data, final Properties props){
+  public CoreferenceScore train(File[] data, Properties props){
+    return train(datums(data), props);
+  }
+
+  public CoreferenceScore train(WeakReferenceList.RefreshFunction<SerializedDatum> data, final Properties props){
     //--Create Data
     //(get properties)
     final String mentionType = props.getProperty("mentionExtractor", "gold");
+    //(cache documents, so that training passes and re-scoring do not decode them again)
+    final DocumentCache<SerializedDatum> cache = cache(data, props);
     //(convert data)
-    Collection<Pair<Document, List<Entity>>> dataToPass = new WeakReferenceList<Pair<Document,List<Entity>>>(new WeakReferenceList.RefreshFunction<Pair<Document,List<Entity>>>(){
+    Collection<Pair<Document, List<Entity>>> dataToPass = new AbstractList<Pair<Document,List<Entity>>>(){
       public Pair<Document,List<Entity>> get(int i) {
-        File f = data[i];
-        SerializedDatum datum = getDatum(f);
+        SerializedDatum datum = cache.get(i);
         //((get mentions))
         List<Mention> mentions = null;
         if(mentionType.equalsIgnoreCase("gold")){
@@ -389,58 +636,153 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
         return Pair.make(datum.document, datum.goldClusters);
       }
       public int size() {
-        return data.length;
+        return cache.size();
       }
-    });
+    };
     //--Train
+    RunProfile.Mark start = profile == null ? null : RunProfile.mark();
     system.train(dataToPass);
+    if(profile != null){ profile.add(RunProfile.Phase.TRAIN, start); }
     //--Return
-    return test(data,props);
+    return test(cache,props);
   }
 
   public CoreferenceScore test(File[] data, Properties props){
+    return test(datums(data), props);
+  }
+
+  /**
+   * Run the system on every datum, and score it.
+   * With -threads N (N &gt; 1), a ConcurrentCoreferenceSystem is run on N documents at a time;
+   * scores are still entered in document order, so they match those of a serial run.
+   * Other systems always run on one document at a time.
+   */
+  public CoreferenceScore test(WeakReferenceList.RefreshFunction<SerializedDatum> data, Properties props){
     //--Variables
     //(get properties)
-    String mentionType = props.getProperty("mentionExtractor", "gold");
+    final String mentionType = props.getProperty("mentionExtractor", "gold");
+    int numThreads = Integer.parseInt(props.getProperty("threads", "1"));
     //(scorer)
     CoreferenceScore score = new CoreferenceScore();
+    RunProfile.Mark start = profile == null ? null : RunProfile.mark();
     //--Run Coreference
-    for(File f : data){
-      SerializedDatum datum = getDatum(f);
-      Document doc = datum.document;
-      //(get mentions)
-      List<Mention> mentions = null;
-      if(mentionType.equalsIgnoreCase("gold")){
-        mentions = datum.goldMentions;
-      } else if(mentionType.equalsIgnoreCase("predicted")) {
-        mentions = datum.predictedMentions;
-      } else {
-        throw new IllegalArgumentException("Unknown mention extractor: " + mentionType);
+    if(numThreads <= 1 || !(system instanceof ConcurrentCoreferenceSystem)){
+      //(case: one document at a time, in order)
+      for(SerializedDatum datum : prefetch(withSections(data, mentionType), props)){
+        ClusterAssignment guess = runDocument(datum, mentionType);
+        enter(score, datum, guess);
       }
-      //(set mentions)
-      datum.document.setMentions(mentions);
-      //(run coreference)
-      Collection<ClusteredMention> guess = system.runCoreference(datum.document);
-      HashSet<ClusteredMention> uniqueCheck = new HashSet<ClusteredMention>();
-      for(ClusteredMention m : guess){ uniqueCheck.add(m); }
-      if(uniqueCheck.size() != guess.size()){
-        throw new IllegalStateException("You added the same mention to the return list twice");
+    } else {
+      //(case: documents run on a pool of threads; scores are entered in document order)
+      ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+      LinkedList<Pair<SerializedDatum,Future<ClusterAssignment>>> pending = new LinkedList<Pair<SerializedDatum,Future<ClusterAssignment>>>();
+      try {
+        for(final SerializedDatum datum : prefetch(withSections(data, mentionType), props)){
+          pending.add(Pair.make(datum, pool.submit(new Callable<ClusterAssignment>(){
+            public ClusterAssignment call() { return runDocument(datum, mentionType); }
+          })));
+          //((keep a bounded number of documents in flight))
+          if(pending.size() >= 2 * numThreads){ enter(score, pending.removeFirst()); }
+        }
+        while(!pending.isEmpty()){ enter(score, pending.removeFirst()); }
+      } finally {
+        pool.shutdownNow();
       }
-      if(guess.size() != datum.document.getMentions().size()){
+    }
+    //--Return
+    if(profile != null){ profile.addTestLoop(start); }
+    return score;
+  }
+
+  private static void enter(CoreferenceScore score, Pair<SerializedDatum,Future<ClusterAssignment>> run){
+    SerializedDatum datum = run.getFirst();
+    ClusterAssignment guess;
+    try {
+      guess = run.getSecond().get();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      //(rethrow the system's exception as it is, as a serial run would)
+      if(e.getCause() instanceof RuntimeException){ throw (RuntimeException) e.getCause(); }
+      if(e.getCause() instanceof Error){ throw (Error) e.getCause(); }
+      throw new RuntimeException(e.getCause());
+    }
+    enter(score, datum, guess);
+  }
+
+  private static void enter(CoreferenceScore score, SerializedDatum datum, ClusterAssignment guess){
+    RunProfile.Mark start = profile == null ? null : RunProfile.mark();
+    score.enter(datum.document, guess, datum.goldClusters);
+    if(profile != null){ profile.add(RunProfile.Phase.SCORE, start); }
+  }
+
+  /**
+   * Run coreference on a single datum, with the given type of mentions
+   */
+  private ClusterAssignment runDocument(SerializedDatum datum, String mentionType){
+    RunProfile.Mark start = profile == null ? null : RunProfile.mark();
+    //(the datum may be cached, and have been used before)
+    resetCoreference(datum);
+    //(get mentions)
+    List<Mention> mentions = null;
+    if(mentionType.equalsIgnoreCase("gold")){
+      mentions = datum.goldMentions;
+    } else if(mentionType.equalsIgnoreCase("predicted")) {
+      mentions = datum.predictedMentions;
+    } else {
+      throw new IllegalArgumentException("Unknown mention extractor: " + mentionType);
+    }
+    //(set mentions)
+    datum.document.setMentions(mentions);
+    //(run coreference)
+    ClusterAssignment guess = runCoreference(datum.document);
+    if(profile != null){ profile.addDocument(datum.document.id, mentions.size(), start); }
+    return guess;
+  }
+
+  /**
+   * Run the system on a document, and check that it clustered every mention exactly once.
+   * Systems which implement FlatCoreferenceSystem are asked for their cluster assignment directly;
+   * the output of any other system is converted from its list of ClusteredMentions.
+   */
+  private ClusterAssignment runCoreference(Document doc){
+    RunProfile.Mark start = profile == null ? null : RunProfile.mark();
+    if(system instanceof FlatCoreferenceSystem){
+      ClusterAssignment guess = ((FlatCoreferenceSystem) system).assignClusters(doc);
+      if(profile != null){ start = profile.add(RunProfile.Phase.COREFERENCE, start); }
+      List<Mention> mentions = doc.getMentions();
+      if(guess.size() != mentions.size()){
         throw new IllegalStateException("You did not assign every entity to a cluster (returned a different sized list)");
       }
-      if(!datum.document.areAllMentionsClustered()){
-        throw new IllegalStateException("You did not assign every entity to a cluster");
+      if(guess.mentions != mentions){
+        //(the clusters are scored against the document's mentions, so they must be of exactly those mentions, in order)
+        int[] clusters = new int[mentions.size()];
+        for(int i=0; i<clusters.length; i++){
+          if(guess.mentions.get(i) != mentions.get(i)){
+            throw new IllegalStateException("You did not assign every entity to a cluster (returned clusters of different mentions)");
+          }
+          clusters[i] = guess.clusterOf(i);
+        }
+        guess = new ClusterAssignment(mentions, clusters);
       }
-      //(enter score)
-      Collection<Entity> gold = datum.goldClusters;
-      score.enter(datum.document, guess, gold);
+      if(profile != null){ profile.add(RunProfile.Phase.VALIDATE, start); }
+      return guess;
     }
-    //--Return
-    return score;
+    Collection<ClusteredMention> guess = system.runCoreference(doc);
+    if(profile != null){ start = profile.add(RunProfile.Phase.COREFERENCE, start); }
+    ClusterAssignment assignment = ClusterAssignment.fromClusteredMentions(doc, guess);
+    if(!doc.areAllMentionsClustered()){
+      throw new IllegalStateException("You did not assign every entity to a cluster");
+    }
+    if(profile != null){ profile.add(RunProfile.Phase.VALIDATE, start); }
+    return assignment;
   }
 
   public String debug(File[] data, Properties props){
+    return debug(datums(data), props);
+  }
+
+  public String debug(WeakReferenceList.RefreshFunction<SerializedDatum> data, Properties props){
     //--Variables
     //(get properties)
     String mentionType = props.getProperty("mentionExtractor", "gold");
@@ -456,10 +798,10 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
     //(documents read)
     int numDocumentsRead = 0;
     //--Run Coreference
-    for(File f : data){
+    for(int i=0; i<data.size(); i++){
       if(numDocumentsRead >= numDocuments){ break; }
       numDocumentsRead += 1;
-      SerializedDatum datum = getDatum(f);
+      SerializedDatum datum = data.get(i);
       Document doc = datum.document;
       //(get mentions)
       List<Mention> mentions = null;
@@ -508,14 +850,40 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
     return debug.toString();
   }
 
-  private static SerializedDatum getDatum(File serializedDatum){
+  static SerializedDatum getDatum(File serializedDatum){
+    //(plaintext and serialized data can be read from a snapshot instead)
+    if(snapshots != null && DataFormat.forFile(serializedDatum) != DataFormat.BINARY){
+      try {
+        return snapshots.get(serializedDatum);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return readDatum(serializedDatum);
+  }
+
+  /**
+   * Decode a datum from its file, in whichever format the file is in
+   */
+  static SerializedDatum readDatum(File serializedDatum){
     try{
-        if(plaintext){
-          //(case: plaintext)
-          return SerializedDatum.decode(IOUtils.slurpFile(serializedDatum));
-        } else {
-          //(case: serialized)
-          return  IOUtils.readObjectFromFile(serializedDatum);
+        switch(DataFormat.forFile(serializedDatum)){
+          case TEXT:
+            //(case: plaintext)
+            Reader reader = new FileReader(serializedDatum);
+            try {
+              return SerializedDatum.decode(reader);
+            } finally {
+              reader.close();
+            }
+          case BINARY:
+            //(case: compact binary)
+            return BinaryDatumCodec.read(serializedDatum);
+          case SERIALIZED:
+            //(case: serialized)
+            return  IOUtils.readObjectFromFile(serializedDatum);
+          default:
+            throw new IllegalArgumentException("Unhandled data format: " + serializedDatum);
         }
       } catch (IOException e) {
         throw new RuntimeException(e);
@@ -524,19 +892,234 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       }
   }
 
-  private static File[] getData(String dataPath, DataType dataType, int count){
-    File[] data = new File[count];
-    int i=0;
-    Iterable<File> files = plaintext
-        ? IOUtils.iterFilesRecursive(new File(dataPath + "/" + conllData(dataType)), ".dat")
-        : IOUtils.iterFilesRecursive(new File(dataPath + "/" + conllData(dataType)), ".ser.gz");
-    for(File serializedDatum : files){
-      if(i >= data.length){ break; }
-      data[i] = serializedDatum;
-      i += 1;
-    }
-    if(i != data.length) { throw new IllegalArgumentException("Could not load " + count + " documents; only " + i + " available"); }
-    return data;
+  /**
+   * Wrap data in a DocumentCache, configured by -cacheEntries (the maximum number of documents
+   * to keep), -cacheTokens (the maximum total number of tokens in the documents kept) and
+   * -cacheSoft (whether the garbage collector may drop cached documents; true by default).
+   * By default, the cache has no budget, and relies on the garbage collector alone.
+   * The training and the dev/test documents are each kept in such a cache.
+   */
+  private static DocumentCache<SerializedDatum> cache(WeakReferenceList.RefreshFunction<SerializedDatum> data, Properties props){
+    if(data instanceof DocumentCache){ return (DocumentCache<SerializedDatum>) data; }
+    int maxEntries = Integer.parseInt(props.getProperty("cacheEntries", "" + Integer.MAX_VALUE));
+    long maxTokens = Long.parseLong(props.getProperty("cacheTokens", "" + Long.MAX_VALUE));
+    boolean soft = Boolean.parseBoolean(props.getProperty("cacheSoft", "true"));
+    return new DocumentCache<SerializedDatum>(data, maxEntries, maxTokens, new DocumentCache.Weigher<SerializedDatum>(){
+      public long weigh(SerializedDatum datum) {
+        long tokens = 0;
+        for(Sentence s : datum.document.sentences){ tokens += s.length(); }
+        return tokens;
+      }
+    }, soft);
+  }
+
+  /**
+   * Clear any coreference marks left on a datum's mentions by an earlier pass over it
+   * (e.g., by a system's training), so that it can be run through coreference again.
+   */
+  static void resetCoreference(SerializedDatum datum){
+    resetCoreference(datum.goldMentions);
+    resetCoreference(datum.predictedMentions);
+  }
+
+  private static void resetCoreference(List<Mention> mentions){
+    //(mentions which have not been decoded yet carry no marks; don't decode them just to check)
+    if(mentions instanceof LazyList && !((LazyList<?>) mentions).isMaterialized()){ return; }
+    if(mentions instanceof MappedCorpus.MappedMentions){
+      MappedCorpus.MappedMentions mapped = (MappedCorpus.MappedMentions) mentions;
+      for(int i=0; i<mapped.size(); i++){
+        Mention m = mapped.decoded(i);
+        if(m != null){ m.removeCoreference(); }
+      }
+      return;
+    }
+    for(Mention m : mentions){ m.removeCoreference(); }
+  }
+
+  /**
+   * Decode the sections of each datum that a run with the given mentions will use
+   * (the chosen mentions, and the gold clusters) as soon as the datum is read, so that
+   * lazily decoded sections are decoded on the prefetching threads rather than by the consumer.
+   * If precomputeAttributes is set, the mentions' attributes (see MentionAttributes)
+   * are computed there as well.
+   */
+  private static WeakReferenceList.RefreshFunction<SerializedDatum> withSections(final WeakReferenceList.RefreshFunction<SerializedDatum> data, final String mentionType){
+    return new WeakReferenceList.RefreshFunction<SerializedDatum>(){
+      public SerializedDatum get(int i) {
+        RunProfile.Mark start = profile == null ? null : RunProfile.mark();
+        SerializedDatum datum = data.get(i);
+        if(profile != null){ start = profile.add(RunProfile.Phase.READ, start); }
+        List<Mention> mentions = mentionType.equalsIgnoreCase("predicted") ? datum.predictedMentions : datum.goldMentions;
+        materialize(mentions);
+        materialize(datum.goldClusters);
+        if(precomputeAttributes){
+          datum.document.setMentions(mentions);
+          datum.document.attributes();
+        }
+        if(profile != null){ profile.add(RunProfile.Phase.DECODE, start); }
+        return datum;
+      }
+      public int size() {
+        return data.size();
+      }
+    };
+  }
+
+  private static void materialize(List<?> list){
+    if(list instanceof LazyList){ ((LazyList<?>) list).materialize(); }
+  }
+
+  /**
+   * Read and decode the given files on a pool of background threads, ahead of
+   * the consumer, while still returning them in order.
+   * The number of decoder threads is set by -decodeThreads (0 decodes on the calling thread),
+   * and the number of documents read ahead by -prefetchDepth.
+   */
+  private static Iterable<SerializedDatum> prefetch(WeakReferenceList.RefreshFunction<SerializedDatum> data, Properties props){
+    int numThreads = Integer.parseInt(props.getProperty("decodeThreads", "1"));
+    int depth = Integer.parseInt(props.getProperty("prefetchDepth", "" + Math.max(2, 2 * numThreads)));
+    return new Prefetcher<SerializedDatum>(data, numThreads, depth);
+  }
+
+  /**
+   * Read datums from individual files, one file per datum
+   */
+  private static WeakReferenceList.RefreshFunction<SerializedDatum> datums(final File[] data){
+    return new WeakReferenceList.RefreshFunction<SerializedDatum>(){
+      public SerializedDatum get(int i) {
+        return getDatum(data[i]);
+      }
+      public int size() {
+        return data.length;
+      }
+    };
+  }
+
+  /**
+   * Get count datums of a split, either from individual files or
+   * from a packed corpus, depending on the data format.
+   * If the split has a manifest (see CorpusManifest), the files are found through it,
+   * and chosen according to the selection; otherwise, the first count files of the split's
+   * directory are used, in the order of splitFiles() (which is also the manifest's order).
+   */
+  static WeakReferenceList.RefreshFunction<SerializedDatum> getData(String dataPath, DataType dataType, final int count, String selection){
+    if(dataFormat != DataFormat.PACKED){
+      //(case: manifest)
+      File manifest = CorpusManifest.manifestFile(dataPath, dataType);
+      if(manifest.exists()){
+        List<CorpusManifest.Entry> entries;
+        try {
+          entries = CorpusManifest.select(CorpusManifest.load(manifest), selection, count);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        File splitDir = new File(dataPath + "/" + conllData(dataType));
+        File[] data = new File[entries.size()];
+        for(int i=0; i<data.length; i++){
+          data[i] = entries.get(i).file(splitDir, dataFormat);
+        }
+        return datums(data);
+      }
+      //(case: directory walk)
+      if(!selection.equalsIgnoreCase("first")){ throw new IllegalArgumentException("Selecting documents by " + selection + " requires a manifest: " + manifest); }
+      return datums(getFiles(dataPath, dataType, count));
+    }
+    //(case: packed corpus)
+    if(!selection.equalsIgnoreCase("first")){ throw new IllegalArgumentException("Cannot select documents by " + selection + " from a packed corpus"); }
+    final MappedCorpus corpus;
+    try {
+      corpus = MappedCorpus.open(MappedCorpus.packedData(dataPath, dataType));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    if(corpus.size() < count) { throw new IllegalArgumentException("Could not load " + count + " documents; only " + corpus.size() + " available"); }
+    return new WeakReferenceList.RefreshFunction<SerializedDatum>(){
+      public SerializedDatum get(int i) {
+        if(i >= count){ throw new IndexOutOfBoundsException("" + i); }
+        return corpus.get(i);
+      }
+      public int size() {
+        return count;
+      }
+    };
+  }
+
+  private static File[] getFiles(String dataPath, DataType dataType, int count){
+    List<File> files = splitFiles(new File(dataPath + "/" + conllData(dataType)), dataFormat.extension);
+    if(files.size() < count) { throw new IllegalArgumentException("Could not load " + count + " documents; only " + files.size() + " available"); }
+    return files.subList(0, count).toArray(new File[count]);
+  }
+
+  /**
+   * The documents of a split in one format, in the order in which the tester reads them:
+   * sorted by their path without the extension. A split's manifest and packed corpus list
+   * the documents in this order too, so the first N documents are the same whichever way
+   * they are read.
+   * @param splitDir The directory of the split
+   * @param extension The extension of the files to find
+   * @return The files, in order
+   */
+  static List<File> splitFiles(File splitDir, final String extension){
+    List<File> files = new ArrayList<File>();
+    for(File f : IOUtils.iterFilesRecursive(splitDir, extension)){ files.add(f); }
+    Collections.sort(files, new Comparator<File>(){
+      public int compare(File a, File b) {
+        String pathA = a.getPath();
+        String pathB = b.getPath();
+        return pathA.substring(0, pathA.length() - extension.length()).compareTo(pathB.substring(0, pathB.length() - extension.length()));
+      }
+    });
+    return files;
+  }
+
+  /**
+   * Create a coreference system by class name; the package may be left off for the systems in cs224n.corefsystems
+   */
+  private static CoreferenceSystem createSystem(String systemClass){
+    if(systemClass.equalsIgnoreCase("baseline")){ systemClass = BaselineCoreferenceSystem.class.getName(); }
+    try{
+      //((try loading the class))
+      return MetaClass.create(systemClass).createInstance();
+    } catch(MetaClass.ClassCreationException e){
+      //((maybe you forgot to include the package))
+      try{
+        return MetaClass.create("cs224n.corefsystems."+systemClass).createInstance();
+      } catch(MetaClass.ClassCreationException e2){
+        //((give up loading the class))
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Train and test a second system (-compare) on the same documents, and test whether it differs
+   * significantly from the first, by resampling the documents' scores (see SignificanceTest)
+   */
+  private static void compare(String systemClass, CoreferenceScore testScore, DocumentCache<SerializedDatum> trainCache,
+                              WeakReferenceList.RefreshFunction<SerializedDatum> test, Properties props){
+    //--Run Other System
+    String otherClass = props.getProperty("compare");
+    CoreferenceTester<CoreferenceSystem> other = new CoreferenceTester<CoreferenceSystem>(createSystem(otherClass));
+    if(profile != null){ profile.beginPass("train (" + otherClass + ")"); }
+    other.train(trainCache, props);
+    if(profile != null){ profile.beginPass(props.getProperty("data","dev") + " (" + otherClass + ")"); }
+    CoreferenceScore otherScore = other.test(test, props);
+    System.out.println();
+    System.out.println("--"+props.getProperty("data","dev")+" ("+otherClass+")--");
+    otherScore.report();
+    //--Test Significance
+    int resamples = Integer.parseInt(props.getProperty("resamples", "10000"));
+    long seed = Long.parseLong(props.getProperty("seed", "42"));
+    int numThreads = Integer.parseInt(props.getProperty("resampleThreads", "" + Runtime.getRuntime().availableProcessors()));
+    List<SignificanceTest.Result> results;
+    try {
+      results = new SignificanceTest(testScore.documentCounts(), otherScore.documentCounts()).run(resamples, seed, numThreads);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    System.out.println();
+    System.out.println("--Significance (" + testScore.documentCounts().size() + " documents, " + resamples + " resamples, seed " + seed + ")--");
+    SignificanceTest.report(systemClass, otherClass, results);
   }
 
   public static void main(String[] args) {
@@ -568,21 +1151,8 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
     System.out.print("Creating model...");
     //(classname)
     String systemClass = props.getProperty("model","baseline");
-    if(systemClass.equalsIgnoreCase("baseline")){ systemClass = BaselineCoreferenceSystem.class.getName(); }
     //(create)
-    CoreferenceSystem system;
-    try{
-      //((try loading the class))
-      system = MetaClass.create(systemClass).createInstance();
-    } catch(MetaClass.ClassCreationException e){
-      //((maybe you forgot to include the package))
-      try{
-        system = MetaClass.create("cs224n.corefsystems."+systemClass).createInstance();
-      } catch(MetaClass.ClassCreationException e2){
-        //((give up loading the class))
-        throw e;
-      }
-    }
+    CoreferenceSystem system = createSystem(systemClass);
     System.out.println("done");
 
     //--Read Data
@@ -611,12 +1181,38 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       System.exit(1);
     }
     System.out.print("[" + numDocs + " train]...");
+    //(get data format)
+    try {
+      dataFormat = DataFormat.valueOf(props.getProperty("format", "text").toUpperCase());
+    } catch (IllegalArgumentException e) {
+      System.out.println("ERROR: bad -format flag type: " + props.getProperty("format"));
+      System.exit(1);
+    }
+    shareMentionParses = Boolean.parseBoolean(props.getProperty("shareParses", "false"));
+    Sentence.compactDecoding = Boolean.parseBoolean(props.getProperty("compactSentences", "false"));
+    precomputeAttributes = Boolean.parseBoolean(props.getProperty("precomputeAttributes", "false"));
+    checkScores = Boolean.parseBoolean(props.getProperty("checkScores", "false"));
+    reportMetrics = Boolean.parseBoolean(props.getProperty("metrics", "false"));
+    if(Boolean.parseBoolean(props.getProperty("profile", "false")) || props.containsKey("profileOut")){ profile = new RunProfile(); }
+    //(get snapshot directory)
+    if(props.containsKey("snapshots")){
+      String snapshotDir = props.getProperty("snapshots");
+      if(snapshotDir.equalsIgnoreCase("true")){ snapshotDir = System.getProperty("java.io.tmpdir") + "/cs224n-coref-snapshots"; }
+      snapshots = new SnapshotCache(new File(snapshotDir));
+      System.out.print("[snapshots in " + snapshotDir + "]...");
+    }
+    //(get document selection)
+    String selection = props.getProperty("select", "first");
+    if(!Arrays.asList(CorpusManifest.SELECTIONS).contains(selection.toLowerCase())){
+      System.out.println("ERROR: bad -select flag type: " + selection);
+      System.exit(1);
+    }
     //(get serialized data)
     //((train))
-    File[] train = getData(dataPath, DataType.TRAIN, numDocs);
+    WeakReferenceList.RefreshFunction<SerializedDatum> train = getData(dataPath, DataType.TRAIN, numDocs, selection);
     //((dev/test))
     String dataTypeString = props.getProperty("data","dev");
-    File[] test = null;
+    WeakReferenceList.RefreshFunction<SerializedDatum> test = null;
     DataType dataType = null;
     try {
       dataType = DataType.valueOf(dataTypeString.toUpperCase());
@@ -625,7 +1221,7 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       System.out.println("ERROR: bad -data flag type: " + dataTypeString);
       System.exit(1);
     }
-    test = getData(dataPath, dataType, dataType == DataType.TEST ? NUM_TEST_EXAMPLES : NUM_DEV_EXAMPLES);
+    test = getData(dataPath, dataType, dataType == DataType.TEST ? NUM_TEST_EXAMPLES : NUM_DEV_EXAMPLES, "first");
     System.out.println("done");
 
     //--TRAIN/TEST
@@ -635,13 +1231,23 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
     System.out.println("----------");
     System.out.println(" TRAINING");
     System.out.println("----------");
-    CoreferenceScore trainScore = tester.train(train, props);
+    //((the cache's counters are only printed if it is configured, or the run profiled))
+    boolean reportCache = profile != null || props.containsKey("cacheEntries") || props.containsKey("cacheTokens") || props.containsKey("cacheSoft");
+    DocumentCache<SerializedDatum> trainCache = cache(train, props);
+    if(profile != null){ profile.beginPass("train"); }
+    CoreferenceScore trainScore = tester.train(trainCache, props);
+    if(reportCache){ System.out.println("Document cache (train): " + trainCache.stats()); }
     //(test)
     System.out.println("---------");
     System.out.println(" TESTING");
     System.out.println("---------");
-    CoreferenceScore testScore = tester.test(test, props);
+    //((cached too, so that -compare runs the other system without decoding the documents again))
+    DocumentCache<SerializedDatum> testCache = cache(test, props);
+    if(profile != null){ profile.beginPass(props.getProperty("data","dev")); }
+    CoreferenceScore testScore = tester.test(testCache, props);
+    if(reportCache){ System.out.println("Document cache (" + props.getProperty("data","dev") + "): " + testCache.stats()); }
     //(debug)
+    //((on fresh copies of the documents: debug() rewrites the gold clusters, which the cached ones share with testScore))
     if(props.containsKey("mistakes")){
       System.out.println("----------------");
       System.out.println(" DEBUG PRINTOUT");
@@ -657,6 +1263,28 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
     System.out.println();
     System.out.println("--"+props.getProperty("data","dev")+"--");
     testScore.report();
+    //(significance, against another system)
+    if(props.containsKey("compare")){
+      compare(systemClass, testScore, trainCache, testCache, props);
+    }
+    if(snapshots != null){
+      System.out.println();
+      System.out.println("Snapshots: " + snapshots.stats());
+    }
+    //(profile)
+    if(profile != null){
+      System.out.println();
+      profile.report();
+      if(props.containsKey("profileOut")){
+        File out = new File(props.getProperty("profileOut"));
+        try {
+          profile.write(out);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        System.out.println("Profile written to " + out);
+      }
+    }
 
   }
 
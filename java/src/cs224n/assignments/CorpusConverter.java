@@ -0,0 +1,158 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.DataFormat;
+import cs224n.assignments.CoreferenceTester.DataType;
+import cs224n.assignments.CoreferenceTester.SerializedDatum;
+import cs224n.coref.Entity;
+import cs224n.coref.Mention;
+import cs224n.util.EncodeVerifier;
+import cs224n.util.IOUtils;
+import cs224n.util.StringUtils;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Re-encodes corpora from one on-disk format into another (by default, plaintext .dat
+ * into the compact binary format of BinaryDatumCodec), using several threads.
+ * Each file is written next to its source, with the extension replaced by that of the
+ * target format. If the two formats are the same, the files are rewritten in place.
+ *
+ * Usage: java cs224n.assignments.CorpusConverter -path [data path] [-data train,dev,test]
+ *          [-from text|binary|serialized] [-to text|binary|serialized] [-threads N]
+ *          [-verify] [-verifyEncoding always|never|sampled:rate]
+ *
+ * -verify decodes every written file again and compares it with its source, while
+ * -verifyEncoding controls the round trip checks inside each encode() method (see EncodeVerifier).
+ */
+public class CorpusConverter {
+
+  /**
+   * Convert a single plaintext datum into the binary format
+   * @param source The .dat file to read
+   * @param verify If true, decode the binary file again and check it agrees with the source
+   * @return The binary file written
+   * @throws IOException If a file could not be read or written
+   */
+  public static File convert(File source, boolean verify) throws IOException {
+    return convert(source, DataFormat.BINARY, verify);
+  }
+
+  /**
+   * Convert a single datum into the given format
+   * @param source The file to read, in any per-file format
+   * @param format The format to write
+   * @param verify If true, decode the written file again and check it agrees with the source
+   * @return The file written
+   * @throws IOException If a file could not be read or written
+   */
+  public static File convert(File source, DataFormat format, boolean verify) throws IOException {
+    SerializedDatum datum = CoreferenceTester.getDatum(source);
+    String name = source.getName();
+    String extension = DataFormat.forFile(source).extension;
+    File target = new File(source.getParentFile(), name.substring(0, name.length() - extension.length()) + format.extension);
+    //(write to a temporary file first, so that rewriting in place cannot lose the source)
+    File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+    write(datum, format, tmp);
+    if(!tmp.renameTo(target)){
+      if(!target.delete() || !tmp.renameTo(target)){ throw new IOException("Could not move " + tmp + " to " + target); }
+    }
+    if(verify && !sameContent(datum, CoreferenceTester.getDatum(target))){
+      throw new IllegalStateException("Converted datum does not match its source: " + source);
+    }
+    return target;
+  }
+
+  private static void write(SerializedDatum datum, DataFormat format, File file) throws IOException {
+    switch(format){
+      case TEXT:
+        Writer out = new OutputStreamWriter(new FileOutputStream(file));
+        try {
+          out.write(datum.encode());
+        } finally {
+          out.close();
+        }
+        break;
+      case BINARY:
+        BinaryDatumCodec.write(datum, file);
+        break;
+      case SERIALIZED:
+        IOUtils.writeObjectToFile(datum, file);
+        break;
+      default:
+        throw new IllegalArgumentException("Cannot write a single datum as " + format + " (use MappedCorpus to pack a corpus)");
+    }
+  }
+
+  private static boolean sameContent(SerializedDatum a, SerializedDatum b){
+    if(!a.document.encode().equals(b.document.encode())){ return false; }
+    if(!encodeMentions(a.goldMentions).equals(encodeMentions(b.goldMentions))){ return false; }
+    if(!encodeMentions(a.predictedMentions).equals(encodeMentions(b.predictedMentions))){ return false; }
+    return encodeClusters(a).equals(encodeClusters(b));
+  }
+
+  private static List<String> encodeMentions(List<Mention> mentions){
+    List<String> encoded = new ArrayList<String>(mentions.size());
+    for(Mention m : mentions){ encoded.add(m.encode()); }
+    return encoded;
+  }
+
+  private static List<Set<String>> encodeClusters(SerializedDatum datum){
+    //(entities iterate in hash order, so compare the mention indices as sets)
+    List<Set<String>> encoded = new ArrayList<Set<String>>(datum.goldClusters.size());
+    for(Entity e : datum.goldClusters){
+      encoded.add(new HashSet<String>(Arrays.asList(e.encode().split(" "))));
+    }
+    return encoded;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    //--Get Properties
+    Properties props = StringUtils.argsToProperties(args);
+    String dataPath = props.getProperty("path", CoreferenceTester.dataPath);
+    final boolean verify = Boolean.parseBoolean(props.getProperty("verify", "false"));
+    String[] types = props.getProperty("data", "train,dev,test").split(",");
+    final DataFormat from = DataFormat.valueOf(props.getProperty("from", "text").toUpperCase());
+    final DataFormat to = DataFormat.valueOf(props.getProperty("to", "binary").toUpperCase());
+    int numThreads = Integer.parseInt(props.getProperty("threads", "" + Runtime.getRuntime().availableProcessors()));
+    EncodeVerifier.configure(props.getProperty("verifyEncoding", "always"));
+    //--Convert
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+    try {
+      for(String type : types){
+        DataType dataType = DataType.valueOf(type.trim().toUpperCase());
+        File dir = new File(dataPath + "/" + CoreferenceTester.conllData(dataType));
+        System.out.print("Converting " + dir + " (" + from + " -> " + to + ")...");
+        long start = System.currentTimeMillis();
+        //(submit every file)
+        List<File> sources = new ArrayList<File>();
+        long sourceBytes = 0;
+        for(File source : IOUtils.iterFilesRecursive(dir, from.extension)){
+          sources.add(source);
+          sourceBytes += source.length();
+        }
+        List<Future<File>> targets = new ArrayList<Future<File>>(sources.size());
+        for(final File source : sources){
+          targets.add(pool.submit(new Callable<File>(){
+            public File call() throws IOException { return convert(source, to, verify); }
+          }));
+        }
+        //(collect results, in order)
+        long targetBytes = 0;
+        for(int i=0; i<sources.size(); i++){
+          try {
+            targetBytes += targets.get(i).get().length();
+          } catch (ExecutionException e) {
+            throw new RuntimeException("Could not convert " + sources.get(i), e.getCause());
+          }
+        }
+        System.out.println("done");
+        System.out.println("  " + sources.size() + " documents; " + sourceBytes + " bytes -> " + targetBytes + " bytes (" +
+            (sourceBytes == 0 ? 0 : (100 * targetBytes / sourceBytes)) + "%) in " + (System.currentTimeMillis() - start) + "ms");
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
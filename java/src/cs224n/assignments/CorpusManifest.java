@@ -0,0 +1,212 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.DataFormat;
+import cs224n.assignments.CoreferenceTester.DataType;
+import cs224n.assignments.CoreferenceTester.SerializedDatum;
+import cs224n.util.Prefetcher;
+import cs224n.util.StringUtils;
+import cs224n.util.WeakReferenceList;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * An index of the documents in a split of the corpus, so that the tester can find and
+ * choose documents without walking the data directory or opening any data files.
+ *
+ * A split's manifest lives next to its directory (e.g., conll2011.train.manifest for
+ * conll2011.train.ser/), and is a tab-separated file with one line per document:
+ * <pre>
+ *   id  path  bytes  sentences  mentions
+ * </pre>
+ * where the path is relative to the split's directory, and mentions counts the gold mentions.
+ * Lines starting with '#' are comments. Documents are listed in order of their path, which is
+ * the order in which the tester reads them.
+ *
+ * Usage: java cs224n.assignments.CorpusManifest -path [data path] [-data train,dev,test]
+ *          [-format text|binary|serialized] [-threads N]
+ */
+public class CorpusManifest {
+  /** The file extension of manifests */
+  public static final String EXTENSION = ".manifest";
+  /** The orders in which documents can be selected from a manifest */
+  public static final String[] SELECTIONS = new String[]{ "first", "largest", "smallest", "mentions" };
+
+  /**
+   * A document, as listed in a manifest
+   */
+  public static class Entry {
+    public final String id;
+    /** The path of the document, relative to the split's directory */
+    public final String path;
+    public final long bytes;
+    public final int sentences;
+    public final int mentions;
+
+    public Entry(String id, String path, long bytes, int sentences, int mentions){
+      this.id = id;
+      this.path = path;
+      this.bytes = bytes;
+      this.sentences = sentences;
+      this.mentions = mentions;
+    }
+
+    /**
+     * The file holding this document in the given format, assuming the corpus has been
+     * converted to that format next to the original files (see CorpusConverter)
+     * @param splitDir The directory of the split
+     * @param format The format to read
+     * @return The document's file
+     */
+    public File file(File splitDir, DataFormat format){
+      String extension = DataFormat.forFile(new File(path)).extension;
+      return new File(splitDir, path.substring(0, path.length() - extension.length()) + format.extension);
+    }
+
+    public String encode(){
+      return id + "\t" + path + "\t" + bytes + "\t" + sentences + "\t" + mentions;
+    }
+
+    public static Entry decode(String line){
+      String[] fields = line.split("\t");
+      if(fields.length != 5){ throw new IllegalStateException("Could not decode manifest entry: " + line); }
+      return new Entry(fields[0], fields[1], Long.parseLong(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+    }
+
+    @Override
+    public String toString(){ return id; }
+  }
+
+  private CorpusManifest(){}
+
+  /**
+   * The manifest of a split of the data
+   * @param dataPath The root of the data
+   * @param dataType The split
+   * @return The manifest file (which may not exist)
+   */
+  public static File manifestFile(String dataPath, DataType dataType){
+    String dir = CoreferenceTester.conllData(dataType);
+    return new File(dataPath + "/" + dir.substring(0, dir.length() - ".ser/".length()) + EXTENSION);
+  }
+
+  /**
+   * Read a manifest
+   * @param manifest The manifest file
+   * @return The entries of the manifest, in order
+   * @throws IOException If the file could not be read
+   */
+  public static List<Entry> load(File manifest) throws IOException {
+    List<Entry> entries = new ArrayList<Entry>();
+    BufferedReader in = new BufferedReader(new FileReader(manifest));
+    try {
+      String line;
+      while((line = in.readLine()) != null){
+        if(line.length() == 0 || line.startsWith("#")){ continue; }
+        entries.add(Entry.decode(line));
+      }
+    } finally {
+      in.close();
+    }
+    return entries;
+  }
+
+  /**
+   * Write a manifest
+   * @param entries The entries to write, in order
+   * @param manifest The file to write
+   * @throws IOException If the file could not be written
+   */
+  public static void write(List<Entry> entries, File manifest) throws IOException {
+    Writer out = new BufferedWriter(new FileWriter(manifest));
+    try {
+      out.write("#id\tpath\tbytes\tsentences\tmentions\n");
+      for(Entry e : entries){
+        if(e.id.indexOf('\t') >= 0 || e.path.indexOf('\t') >= 0){ throw new IllegalArgumentException("Cannot write a tab in a manifest: " + e.id + " " + e.path); }
+        out.write(e.encode());
+        out.write("\n");
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Build the manifest of a split, by reading every document in it.
+   * @param splitDir The directory of the split
+   * @param format The format of the documents to index
+   * @param numThreads The number of threads to read documents on
+   * @return The entries of the manifest, in the order of CoreferenceTester.splitFiles()
+   */
+  public static List<Entry> build(final File splitDir, DataFormat format, int numThreads){
+    //(find files, in the order the tester reads them)
+    final List<File> files = CoreferenceTester.splitFiles(splitDir, format.extension);
+    //(read them)
+    WeakReferenceList.RefreshFunction<SerializedDatum> data = new WeakReferenceList.RefreshFunction<SerializedDatum>(){
+      public SerializedDatum get(int i) { return CoreferenceTester.getDatum(files.get(i)); }
+      public int size() { return files.size(); }
+    };
+    String root = splitDir.getAbsolutePath() + File.separator;
+    List<Entry> entries = new ArrayList<Entry>(files.size());
+    int i = 0;
+    for(SerializedDatum datum : new Prefetcher<SerializedDatum>(data, numThreads, Math.max(2, 2 * numThreads))){
+      File f = files.get(i);
+      String path = f.getAbsolutePath();
+      if(!path.startsWith(root)){ throw new IllegalStateException("File is not in its split (not your fault!): " + f); }
+      path = path.substring(root.length()).replace(File.separatorChar, '/');
+      entries.add(new Entry(datum.document.id, path, f.length(), datum.document.sentences.size(), datum.goldMentions.size()));
+      i += 1;
+    }
+    return entries;
+  }
+
+  /**
+   * Choose documents from a manifest
+   * @param entries The entries of the manifest
+   * @param selection One of SELECTIONS: the first documents in manifest order, the largest or smallest
+   *                  files, or the documents with the most gold mentions
+   * @param count The number of documents to choose
+   * @return The chosen entries; ties are broken by manifest order
+   */
+  public static List<Entry> select(List<Entry> entries, String selection, int count){
+    if(entries.size() < count){ throw new IllegalArgumentException("Could not load " + count + " documents; only " + entries.size() + " available"); }
+    List<Entry> sorted = new ArrayList<Entry>(entries);
+    if(selection.equalsIgnoreCase("largest")){
+      Collections.sort(sorted, new Comparator<Entry>(){
+        public int compare(Entry a, Entry b) { return a.bytes == b.bytes ? 0 : (a.bytes > b.bytes ? -1 : 1); }
+      });
+    } else if(selection.equalsIgnoreCase("smallest")){
+      Collections.sort(sorted, new Comparator<Entry>(){
+        public int compare(Entry a, Entry b) { return a.bytes == b.bytes ? 0 : (a.bytes < b.bytes ? -1 : 1); }
+      });
+    } else if(selection.equalsIgnoreCase("mentions")){
+      Collections.sort(sorted, new Comparator<Entry>(){
+        public int compare(Entry a, Entry b) { return b.mentions - a.mentions; }
+      });
+    } else if(!selection.equalsIgnoreCase("first")){
+      throw new IllegalArgumentException("Unknown selection: " + selection + " (must be one of " + Arrays.toString(SELECTIONS) + ")");
+    }
+    return new ArrayList<Entry>(sorted.subList(0, count));
+  }
+
+  public static void main(String[] args) throws IOException {
+    //--Get Properties
+    Properties props = StringUtils.argsToProperties(args);
+    String dataPath = props.getProperty("path", CoreferenceTester.dataPath);
+    String[] types = props.getProperty("data", "train,dev,test").split(",");
+    DataFormat format = DataFormat.valueOf(props.getProperty("format", "text").toUpperCase());
+    int numThreads = Integer.parseInt(props.getProperty("threads", "" + Runtime.getRuntime().availableProcessors()));
+    //--Index
+    for(String type : types){
+      DataType dataType = DataType.valueOf(type.trim().toUpperCase());
+      File dir = new File(dataPath + "/" + CoreferenceTester.conllData(dataType));
+      File manifest = manifestFile(dataPath, dataType);
+      System.out.print("Indexing " + dir + " into " + manifest + "...");
+      long start = System.currentTimeMillis();
+      List<Entry> entries = build(dir, format, numThreads);
+      write(entries, manifest);
+      System.out.println("done");
+      System.out.println("  " + entries.size() + " documents in " + (System.currentTimeMillis() - start) + "ms");
+    }
+  }
+}
@@ -0,0 +1,449 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.DataType;
+import cs224n.assignments.CoreferenceTester.SerializedDatum;
+import cs224n.coref.*;
+import cs224n.ling.Tree;
+import cs224n.util.Indexer;
+import cs224n.util.StringUtils;
+import cs224n.util.WeakReferenceList;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A whole corpus split packed into a single file, which is memory-mapped and read in place.
+ *
+ * Documents, sentences, mentions and clusters are handed out as views backed by offsets
+ * into the mapped file: a sentence's word, lemma, tag and speaker columns are lists that read
+ * string ids straight from the buffer, and a document's sentences and mention lists are only
+ * built when they are first accessed. Strings are kept in a single corpus-wide table and
+ * each is decoded at most once. Re-reading a document that has been garbage collected
+ * therefore costs a few page-cache reads, rather than a full re-parse.
+ *
+ * The file layout is (all integers are 4 byte big-endian):
+ * <pre>
+ *   magic ("CRP1"), string count, document count
+ *   string offsets [string count + 1], UTF-8 string data
+ *   document offsets [document count + 1]
+ *   documents: id, sentence count, sentence offsets*, gold offset, predicted offset, cluster offset,
+ *              sentences:    [length, words*, lemmas*, POS*, NER*, speakers*, tree]*
+ *              gold:         count, mention offsets*, [sentence, begin, end, head, tree]*
+ *              predicted:    (as gold)
+ *              clusters:     count, cluster offsets*, [size, gold mention index*]*
+ *   trees: node count, [label, number of children]* in pre-order
+ * </pre>
+ * Offsets inside a document are relative to the start of that document.
+ *
+ * Usage (packing): java cs224n.assignments.MappedCorpus -path [data path] [-data train,dev,test] [-format text|binary]
+ */
+public class MappedCorpus implements WeakReferenceList.RefreshFunction<SerializedDatum> {
+  /** The file extension of packed corpora */
+  public static final String EXTENSION = ".pack";
+
+  private static final int MAGIC = ('C' << 24) | ('R' << 16) | ('P' << 8) | '1';
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final ByteBuffer buffer;
+  private final int stringOffsetBase;
+  private final int stringDataBase;
+  private final int documentOffsetBase;
+  private final String[] strings;
+  private final int numDocuments;
+
+  private MappedCorpus(ByteBuffer buffer){
+    this.buffer = buffer;
+    if(buffer.getInt(0) != MAGIC){ throw new IllegalStateException("Not a packed corpus"); }
+    int numStrings = buffer.getInt(4);
+    this.numDocuments = buffer.getInt(8);
+    this.stringOffsetBase = 12;
+    this.stringDataBase = stringOffsetBase + 4 * (numStrings + 1);
+    this.documentOffsetBase = stringDataBase + buffer.getInt(stringOffsetBase + 4 * numStrings);
+    this.strings = new String[numStrings];
+  }
+
+  /**
+   * Memory-map a packed corpus
+   * @param file The .pack file to map
+   * @return The mapped corpus
+   * @throws IOException If the file could not be mapped
+   */
+  public static MappedCorpus open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if(channel.size() > Integer.MAX_VALUE){ throw new IOException("Packed corpus is too large to map: " + file); }
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new MappedCorpus(mapped);
+    } finally {
+      raf.close();  // the mapping stays valid after the channel is closed
+    }
+  }
+
+  /**
+   * The number of documents in the corpus
+   * @return The number of documents
+   */
+  public int size() {
+    return numDocuments;
+  }
+
+  /**
+   * Get a view of the i'th document of the corpus. Nothing is decoded until
+   * the relevant field is accessed.
+   * @param i The index of the document
+   * @return A datum backed by the mapped file
+   */
+  public SerializedDatum get(int i) {
+    if(i < 0 || i >= numDocuments){ throw new IndexOutOfBoundsException("" + i); }
+    final int base = buffer.getInt(documentOffsetBase + 4 * i);
+    //--Document
+    final int numSentences = buffer.getInt(base + 4);
+    final Sentence[] sentenceCache = new Sentence[numSentences];
+    List<Sentence> sentences = new AbstractList<Sentence>(){
+      public Sentence get(int index) {
+        if(sentenceCache[index] == null){
+          sentenceCache[index] = sentenceAt(base + buffer.getInt(base + 8 + 4 * index));
+        }
+        return sentenceCache[index];
+      }
+      public int size() { return numSentences; }
+    };
+    final Document doc = new Document(string(buffer.getInt(base)), sentences);
+    //--Mentions
+    int sectionBase = base + 8 + 4 * numSentences;
+    List<Mention> goldMentions = mentionsAt(base, base + buffer.getInt(sectionBase), doc);
+    List<Mention> predictedMentions = mentionsAt(base, base + buffer.getInt(sectionBase + 4), doc);
+    //--Clusters
+    List<Entity> goldClusters = clustersAt(base, base + buffer.getInt(sectionBase + 8), goldMentions);
+    return new SerializedDatum(doc, goldMentions, predictedMentions, goldClusters);
+  }
+
+  private String string(int id){
+    String str = strings[id];
+    if(str == null){
+      //(benign race: two threads may both decode the same string)
+      int start = buffer.getInt(stringOffsetBase + 4 * id);
+      int end = buffer.getInt(stringOffsetBase + 4 * (id + 1));
+      byte[] bytes = new byte[end - start];
+      ByteBuffer slice = buffer.duplicate();
+      slice.position(stringDataBase + start);
+      slice.get(bytes);
+      str = new String(bytes, UTF8);
+      strings[id] = str;
+    }
+    return str;
+  }
+
+  private Sentence sentenceAt(int offset){
+    int length = buffer.getInt(offset);
+    int columns = offset + 4;
+    return new Sentence(
+        new StringColumn(columns, length),
+        new StringColumn(columns + 4 * length, length),
+        new StringColumn(columns + 8 * length, length),
+        new StringColumn(columns + 12 * length, length),
+        new StringColumn(columns + 16 * length, length),
+        treeAt(columns + 20 * length));
+  }
+
+  private Tree<String> treeAt(int offset){
+    int numNodes = buffer.getInt(offset);
+    int pos = offset + 4;
+    ArrayList<List<Tree<String>>> openChildren = new ArrayList<List<Tree<String>>>();
+    int[] missing = new int[numNodes];
+    int depth = 0;
+    Tree<String> root = null;
+    for(int i=0; i<numNodes; i++){
+      String label = string(buffer.getInt(pos));
+      int numChildren = buffer.getInt(pos + 4);
+      pos += 8;
+      Tree<String> node;
+      List<Tree<String>> children = null;
+      if(numChildren == 0){
+        node = new Tree<String>(label);
+      } else {
+        children = new ArrayList<Tree<String>>(numChildren);
+        node = new Tree<String>(label, children);
+      }
+      if(depth == 0){
+        root = node;
+      } else {
+        openChildren.get(depth-1).add(node);
+        missing[depth-1] -= 1;
+      }
+      if(children != null){
+        if(openChildren.size() > depth){ openChildren.set(depth, children); } else { openChildren.add(children); }
+        missing[depth] = numChildren;
+        depth += 1;
+      } else {
+        while(depth > 0 && missing[depth-1] == 0){ depth -= 1; }
+      }
+    }
+    root.indexSpans();
+    return root;
+  }
+
+  private List<Mention> mentionsAt(int base, int offset, Document doc){
+    return new MappedMentions(base, offset, doc);
+  }
+
+  /**
+   * A section of mentions, read directly from the mapped buffer; each mention is
+   * decoded the first time it is accessed
+   */
+  class MappedMentions extends AbstractList<Mention> {
+    private final int base;
+    private final int offset;
+    private final Document doc;
+    private final Mention[] cache;
+    private MappedMentions(int base, int offset, Document doc){
+      this.base = base;
+      this.offset = offset;
+      this.doc = doc;
+      this.cache = new Mention[buffer.getInt(offset)];
+    }
+    public Mention get(int index) {
+      if(cache[index] == null){
+        int pos = base + buffer.getInt(offset + 4 + 4 * index);
+        cache[index] = new Mention(doc, doc.sentences.get(buffer.getInt(pos)),
+            buffer.getInt(pos + 4), buffer.getInt(pos + 8), treeAt(pos + 16), buffer.getInt(pos + 12));
+      }
+      return cache[index];
+    }
+    public int size() { return cache.length; }
+
+    /**
+     * @return The index'th mention if it has been decoded already, and null otherwise;
+     *         this never decodes a mention
+     */
+    Mention decoded(int index){
+      return cache[index];
+    }
+  }
+
+  private List<Entity> clustersAt(final int base, final int offset, final List<Mention> goldMentions){
+    final int numClusters = buffer.getInt(offset);
+    final Entity[] cache = new Entity[numClusters];
+    return new AbstractList<Entity>(){
+      public Entity get(int index) {
+        if(cache[index] == null){
+          int pos = base + buffer.getInt(offset + 4 + 4 * index);
+          int clusterSize = buffer.getInt(pos);
+          List<Mention> mentions = new ArrayList<Mention>(clusterSize);
+          for(int k=0; k<clusterSize; k++){
+            mentions.add(goldMentions.get(buffer.getInt(pos + 4 + 4 * k)));
+          }
+          cache[index] = new Entity(goldMentions, mentions);
+        }
+        return cache[index];
+      }
+      public int size() { return numClusters; }
+    };
+  }
+
+  /**
+   * A column of a sentence (e.g., its words), read directly from the mapped buffer
+   */
+  private class StringColumn extends AbstractList<String> {
+    private final int offset;
+    private final int length;
+    private StringColumn(int offset, int length){
+      this.offset = offset;
+      this.length = length;
+    }
+    public String get(int index) {
+      if(index < 0 || index >= length){ throw new IndexOutOfBoundsException("" + index); }
+      return string(buffer.getInt(offset + 4 * index));
+    }
+    public int size() { return length; }
+  }
+
+  //--------------
+  // PACKING
+  //--------------
+
+  /**
+   * Pack a collection of datums into a single corpus file
+   * @param data The datums to pack, in order
+   * @param file The file to write
+   * @throws IOException If the file could not be written
+   */
+  public static void pack(Iterable<SerializedDatum> data, File file) throws IOException {
+    //--Encode Documents
+    Indexer<String> strings = new Indexer<String>();
+    List<byte[]> documents = new ArrayList<byte[]>();
+    for(SerializedDatum datum : data){
+      documents.add(packDocument(datum, strings));
+    }
+    //--Encode Strings
+    ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+    int[] stringOffsets = new int[strings.size() + 1];
+    for(int i=0; i<strings.size(); i++){
+      byte[] bytes = strings.get(i).getBytes(UTF8);
+      stringData.write(bytes, 0, bytes.length);
+      stringOffsets[i+1] = stringData.size();
+    }
+    //--Write
+    long offset = 12 + 4 * stringOffsets.length + stringData.size() + 4 * (documents.size() + 1);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(strings.size());
+      out.writeInt(documents.size());
+      for(int stringOffset : stringOffsets){ out.writeInt(stringOffset); }
+      stringData.writeTo(out);
+      for(byte[] doc : documents){
+        if(offset > Integer.MAX_VALUE){ throw new IOException("Corpus is too large to pack into a single file"); }
+        out.writeInt((int) offset);
+        offset += doc.length;
+      }
+      out.writeInt((int) Math.min(offset, Integer.MAX_VALUE));
+      for(byte[] doc : documents){ out.write(doc); }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static byte[] packDocument(SerializedDatum datum, Indexer<String> strings) throws IOException {
+    Document doc = datum.document;
+    int numSentences = doc.sentences.size();
+    //--Sentences
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    int headerSize = 4 * (2 + numSentences + 3);
+    int[] sentenceOffsets = new int[numSentences];
+    Map<Sentence,Integer> sentenceIndex = new IdentityHashMap<Sentence,Integer>();
+    for(int i=0; i<numSentences; i++){
+      Sentence s = doc.sentences.get(i);
+      sentenceIndex.put(s, i);
+      sentenceOffsets[i] = headerSize + out.size();
+      out.writeInt(s.length());
+      for(String value : s.words){ out.writeInt(strings.addAndGetIndex(value)); }
+      for(String value : s.lemmas){ out.writeInt(strings.addAndGetIndex(value)); }
+      for(String value : s.posTags){ out.writeInt(strings.addAndGetIndex(value)); }
+      for(String value : s.nerTags){ out.writeInt(strings.addAndGetIndex(value)); }
+      for(String value : s.speakersOfWord){ out.writeInt(strings.addAndGetIndex(value)); }
+      packTree(out, strings, s.parse);
+    }
+    //--Mentions
+    int goldOffset = headerSize + out.size();
+    packMentions(out, headerSize, strings, sentenceIndex, datum.goldMentions);
+    int predictedOffset = headerSize + out.size();
+    packMentions(out, headerSize, strings, sentenceIndex, datum.predictedMentions);
+    //--Clusters
+    int clusterOffset = headerSize + out.size();
+    HashMap<Mention,Integer> mentionIndex = new HashMap<Mention,Integer>();
+    for(int i=0; i<datum.goldMentions.size(); i++){
+      mentionIndex.put(datum.goldMentions.get(i), i);
+    }
+    int numClusters = datum.goldClusters.size();
+    out.writeInt(numClusters);
+    int recordBase = headerSize + out.size() + 4 * numClusters;
+    for(Entity e : datum.goldClusters){
+      out.writeInt(recordBase);
+      recordBase += 4 * (1 + e.size());
+    }
+    for(Entity e : datum.goldClusters){
+      out.writeInt(e.size());
+      for(Mention m : e.mentions){
+        Integer index = mentionIndex.get(m);
+        if(index == null){ throw new IllegalStateException("Cluster mention is not a gold mention: " + m); }
+        out.writeInt(index);
+      }
+    }
+    out.flush();
+    //--Header
+    ByteArrayOutputStream record = new ByteArrayOutputStream(headerSize + bytes.size());
+    DataOutputStream header = new DataOutputStream(record);
+    header.writeInt(strings.addAndGetIndex(doc.id));
+    header.writeInt(numSentences);
+    for(int sentenceOffset : sentenceOffsets){ header.writeInt(sentenceOffset); }
+    header.writeInt(goldOffset);
+    header.writeInt(predictedOffset);
+    header.writeInt(clusterOffset);
+    bytes.writeTo(header);
+    header.flush();
+    return record.toByteArray();
+  }
+
+  private static void packMentions(DataOutputStream out, int headerSize, Indexer<String> strings,
+                                   Map<Sentence,Integer> sentenceIndex, List<Mention> mentions) throws IOException {
+    //(encode the records first, to know their offsets)
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    DataOutputStream recordOut = new DataOutputStream(records);
+    int[] offsets = new int[mentions.size()];
+    int recordBase = headerSize + out.size() + 4 * (1 + mentions.size());
+    for(int i=0; i<mentions.size(); i++){
+      Mention m = mentions.get(i);
+      Integer sentence = sentenceIndex.get(m.sentence);
+      if(sentence == null){ throw new IllegalStateException("Mention's sentence is not in the document: " + m); }
+      offsets[i] = recordBase + recordOut.size();
+      recordOut.writeInt(sentence);
+      recordOut.writeInt(m.beginIndexInclusive);
+      recordOut.writeInt(m.endIndexExclusive);
+      recordOut.writeInt(m.headWordIndex);
+      packTree(recordOut, strings, m.parse);
+    }
+    recordOut.flush();
+    out.writeInt(mentions.size());
+    for(int offset : offsets){ out.writeInt(offset); }
+    records.writeTo(out);
+  }
+
+  private static void packTree(DataOutputStream out, Indexer<String> strings, Tree<String> tree) throws IOException {
+    List<Tree<String>> nodes = tree.getPreOrderTraversal();
+    out.writeInt(nodes.size());
+    for(Tree<String> node : nodes){
+      out.writeInt(strings.addAndGetIndex(node.getLabel()));
+      out.writeInt(node.getChildren().size());
+    }
+  }
+
+  /**
+   * The location of the packed corpus for a given split
+   * @param dataPath The root data directory
+   * @param dataType The split
+   * @return The packed corpus file
+   */
+  public static File packedData(String dataPath, DataType dataType){
+    String dir = CoreferenceTester.conllData(dataType);
+    return new File(dataPath + "/" + dir.substring(0, dir.length() - ".ser/".length()) + EXTENSION);
+  }
+
+  public static void main(String[] args) throws IOException {
+    //--Get Properties
+    Properties props = StringUtils.argsToProperties(args);
+    String dataPath = props.getProperty("path", CoreferenceTester.dataPath);
+    String extension = props.getProperty("format", "text").equalsIgnoreCase("binary") ? BinaryDatumCodec.EXTENSION : ".dat";
+    String[] types = props.getProperty("data", "train,dev,test").split(",");
+    //--Pack
+    for(String type : types){
+      DataType dataType = DataType.valueOf(type.trim().toUpperCase());
+      File dir = new File(dataPath + "/" + CoreferenceTester.conllData(dataType));
+      File target = packedData(dataPath, dataType);
+      System.out.print("Packing " + dir + " into " + target + "...");
+      //(collect files, in the order the tester reads them)
+      final List<File> files = CoreferenceTester.splitFiles(dir, extension);
+      //(decode them lazily, one at a time)
+      Iterable<SerializedDatum> data = new Iterable<SerializedDatum>(){
+        public Iterator<SerializedDatum> iterator() {
+          final Iterator<File> iter = files.iterator();
+          return new Iterator<SerializedDatum>(){
+            public boolean hasNext() { return iter.hasNext(); }
+            public SerializedDatum next() {
+              return CoreferenceTester.getDatum(iter.next());
+            }
+            public void remove() { throw new UnsupportedOperationException(); }
+          };
+        }
+      };
+      pack(data, target);
+      System.out.println("done (" + files.size() + " documents, " + target.length() + " bytes)");
+    }
+  }
+}
@@ -0,0 +1,296 @@
+package cs224n.assignments;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+
+/**
+ * Records where the time of a CoreferenceTester run goes: the wall time, CPU time and bytes
+ * allocated of every phase of the run, and of every document's coreference, measured with the
+ * ThreadMXBean of the thread doing the work (so work on decoding and coreference threads is counted
+ * where it happens). Measurements are grouped in passes (e.g., the training and the test documents);
+ * each pass also keeps the wall time of its test loop, from which throughput is reported.
+ * A phase's times are summed over the threads it ran on, so with several threads its wall time
+ * can exceed that of the whole pass.
+ *
+ * Allocated bytes are only available on JVMs whose ThreadMXBean is a com.sun.management.ThreadMXBean;
+ * elsewhere they are reported as 0, as is CPU time if the JVM cannot measure it.
+ */
+public class RunProfile {
+
+  /** The phases of a run */
+  public static enum Phase {
+    /** Getting a datum from the data: file I/O and any eager decoding */
+    READ,
+    /** Decoding the lazily decoded sections of a datum (mentions, clusters, attributes) */
+    DECODE,
+    /** The system's train() */
+    TRAIN,
+    /** The system's runCoreference() (or assignClusters()) */
+    COREFERENCE,
+    /** Checking the system's output (every mention clustered, and only once) */
+    VALIDATE,
+    /** Entering a document's clusters into the score */
+    SCORE
+  }
+
+  /** A point in the run of a thread: its wall clock, CPU time, and bytes allocated so far */
+  public static class Mark {
+    private final long wall;
+    private final long cpu;
+    private final long allocated;
+    private Mark(long wall, long cpu, long allocated){
+      this.wall = wall;
+      this.cpu = cpu;
+      this.allocated = allocated;
+    }
+  }
+
+  /** The cost of running coreference on one document */
+  public static class DocumentRecord {
+    public final String id;
+    public final int mentions;
+    public final long wallNanos;
+    public final long cpuNanos;
+    public final long allocatedBytes;
+    private DocumentRecord(String id, int mentions, long wallNanos, long cpuNanos, long allocatedBytes){
+      this.id = id;
+      this.mentions = mentions;
+      this.wallNanos = wallNanos;
+      this.cpuNanos = cpuNanos;
+      this.allocatedBytes = allocatedBytes;
+    }
+  }
+
+  /** The measurements of one pass */
+  private static class Pass {
+    private final String name;
+    private final long[] wall = new long[Phase.values().length];
+    private final long[] cpu = new long[Phase.values().length];
+    private final long[] allocated = new long[Phase.values().length];
+    private final long[] count = new long[Phase.values().length];
+    private final List<DocumentRecord> documents = new ArrayList<DocumentRecord>();
+    private long testWall = 0;
+    private Pass(String name){ this.name = name; }
+  }
+
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private static final boolean cpuSupported;
+  //(com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long), or null if this JVM does not have it)
+  private static final Method allocatedBytes;
+  static {
+    boolean cpu = threads.isCurrentThreadCpuTimeSupported();
+    if(cpu && !threads.isThreadCpuTimeEnabled()){ threads.setThreadCpuTimeEnabled(true); }
+    cpuSupported = cpu;
+    //(found reflectively, so that the class still loads on JVMs without com.sun.management)
+    Method allocation = null;
+    try {
+      Class<?> sunThreads = Class.forName("com.sun.management.ThreadMXBean");
+      if(sunThreads.isInstance(threads) &&
+          (Boolean) sunThreads.getMethod("isThreadAllocatedMemorySupported").invoke(threads)){
+        if(!(Boolean) sunThreads.getMethod("isThreadAllocatedMemoryEnabled").invoke(threads)){
+          sunThreads.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(threads, true);
+        }
+        allocation = sunThreads.getMethod("getThreadAllocatedBytes", long.class);
+      }
+    } catch (Exception e) {
+      allocation = null;
+    } catch (LinkageError e) {
+      allocation = null;
+    }
+    allocatedBytes = allocation;
+  }
+
+  private final List<Pass> passes = new ArrayList<Pass>();
+  private Pass current = null;
+
+  /**
+   * Start a new pass; everything recorded from now on is counted in it
+   * @param name The name of the pass (e.g., "train" or "dev")
+   */
+  public synchronized void beginPass(String name){
+    current = new Pass(name);
+    passes.add(current);
+  }
+
+  private Pass current(){
+    if(current == null){ beginPass("run"); }
+    return current;
+  }
+
+  /**
+   * @return The current thread's wall clock, CPU time and allocated bytes
+   */
+  public static Mark mark(){
+    long cpu = cpuSupported ? threads.getCurrentThreadCpuTime() : 0;
+    return new Mark(System.nanoTime(), cpu, allocated());
+  }
+
+  /** The bytes allocated by the current thread so far, or 0 if this JVM cannot tell */
+  private static long allocated(){
+    if(allocatedBytes == null){ return 0; }
+    try {
+      return (Long) allocatedBytes.invoke(threads, Thread.currentThread().getId());
+    } catch (Exception e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Count the current thread's work since a mark in a phase
+   * @param phase The phase
+   * @param start The mark taken (on this thread) when the work began
+   * @return A mark of now, to start the next phase from
+   */
+  public Mark add(Phase phase, Mark start){
+    Mark end = mark();
+    synchronized(this){
+      Pass pass = current();
+      int p = phase.ordinal();
+      pass.wall[p] += end.wall - start.wall;
+      pass.cpu[p] += end.cpu - start.cpu;
+      pass.allocated[p] += end.allocated - start.allocated;
+      pass.count[p] += 1;
+    }
+    return end;
+  }
+
+  /**
+   * Record the current thread's work on a document since a mark
+   * @param id The id of the document
+   * @param mentions The number of mentions in the document
+   * @param start The mark taken (on this thread) when the work on the document began
+   */
+  public void addDocument(String id, int mentions, Mark start){
+    Mark end = mark();
+    DocumentRecord record = new DocumentRecord(id, mentions, end.wall - start.wall, end.cpu - start.cpu, end.allocated - start.allocated);
+    synchronized(this){ current().documents.add(record); }
+  }
+
+  /**
+   * Record the wall time of a pass' test loop, from which throughput is computed
+   * @param start The mark taken when the loop began
+   */
+  public synchronized void addTestLoop(Mark start){
+    current().testWall += System.nanoTime() - start.wall;
+  }
+
+  public synchronized void report(){
+    for(Pass pass : passes){
+      System.out.println("--Profile (" + pass.name + ")--");
+      System.out.println(String.format("%-12s %10s %10s %12s %8s", "Phase", "Wall(ms)", "CPU(ms)", "Alloc(MB)", "Count"));
+      for(Phase phase : Phase.values()){
+        int p = phase.ordinal();
+        if(pass.count[p] == 0){ continue; }
+        System.out.println(String.format("%-12s %10.1f %10.1f %12.1f %8d", phase, pass.wall[p] / 1e6, pass.cpu[p] / 1e6,
+            pass.allocated[p] / (1024.0 * 1024.0), pass.count[p]));
+      }
+      //(throughput)
+      int documents = pass.documents.size();
+      if(documents == 0){ continue; }
+      long mentions = 0;
+      long[] latencies = new long[documents];
+      for(int i=0; i<documents; i++){
+        mentions += pass.documents.get(i).mentions;
+        latencies[i] = pass.documents.get(i).wallNanos;
+      }
+      Arrays.sort(latencies);
+      double seconds = pass.testWall / 1e9;
+      System.out.println(String.format("Documents: %d (%d mentions) in %.3fs: %.1f docs/sec, %.1f mentions/sec", documents, mentions, seconds,
+          seconds > 0 ? documents / seconds : 0.0, seconds > 0 ? mentions / seconds : 0.0));
+      System.out.println(String.format("Latency per document (ms): p50 %.3f  p95 %.3f  p99 %.3f  max %.3f",
+          percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.95) / 1e6, percentile(latencies, 0.99) / 1e6, latencies[documents - 1] / 1e6));
+    }
+  }
+
+  /** The nearest rank percentile of sorted values */
+  private static long percentile(long[] sorted, double q){
+    int rank = (int) Math.ceil(q * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+  }
+
+  /**
+   * Write the raw measurements to a file, as JSON if its name ends in .json, and as CSV otherwise.
+   * The CSV has a row per phase of each pass and per document, with the columns
+   * pass, kind (phase or document), name, mentions, wall_ns, cpu_ns, allocated_bytes, count.
+   * @param file The file to write
+   */
+  public synchronized void write(File file) throws IOException {
+    PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+    try {
+      if(file.getName().toLowerCase().endsWith(".json")){
+        writeJson(out);
+      } else {
+        writeCsv(out);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writeCsv(PrintWriter out){
+    out.println("pass,kind,name,mentions,wall_ns,cpu_ns,allocated_bytes,count");
+    for(Pass pass : passes){
+      for(Phase phase : Phase.values()){
+        int p = phase.ordinal();
+        out.println(csv(pass.name) + ",phase," + phase + ",," + pass.wall[p] + "," + pass.cpu[p] + "," + pass.allocated[p] + "," + pass.count[p]);
+      }
+      out.println(csv(pass.name) + ",test_loop,,," + pass.testWall + ",,,");
+      for(DocumentRecord doc : pass.documents){
+        out.println(csv(pass.name) + ",document," + csv(doc.id) + "," + doc.mentions + "," + doc.wallNanos + "," + doc.cpuNanos + "," + doc.allocatedBytes + ",1");
+      }
+    }
+  }
+
+  private static String csv(String value){
+    if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0){ return value; }
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+
+  private void writeJson(PrintWriter out){
+    out.println("{\"passes\": [");
+    for(int i=0; i<passes.size(); i++){
+      Pass pass = passes.get(i);
+      out.println("  {\"name\": " + json(pass.name) + ", \"testLoopWallNanos\": " + pass.testWall + ",");
+      out.println("   \"phases\": {");
+      Phase[] phases = Phase.values();
+      for(int p=0; p<phases.length; p++){
+        out.println("     " + json(phases[p].toString()) + ": {\"wallNanos\": " + pass.wall[p] + ", \"cpuNanos\": " + pass.cpu[p] +
+            ", \"allocatedBytes\": " + pass.allocated[p] + ", \"count\": " + pass.count[p] + "}" + (p < phases.length - 1 ? "," : ""));
+      }
+      out.println("   },");
+      out.println("   \"documents\": [");
+      for(int d=0; d<pass.documents.size(); d++){
+        DocumentRecord doc = pass.documents.get(d);
+        out.println("     {\"id\": " + json(doc.id) + ", \"mentions\": " + doc.mentions + ", \"wallNanos\": " + doc.wallNanos +
+            ", \"cpuNanos\": " + doc.cpuNanos + ", \"allocatedBytes\": " + doc.allocatedBytes + "}" + (d < pass.documents.size() - 1 ? "," : ""));
+      }
+      out.println("   ]}" + (i < passes.size() - 1 ? "," : ""));
+    }
+    out.println("]}");
+  }
+
+  private static String json(String value){
+    StringBuilder b = new StringBuilder(value.length() + 2);
+    b.append('"');
+    for(int i=0; i<value.length(); i++){
+      char c = value.charAt(i);
+      switch(c){
+        case '"': b.append("\\\""); break;
+        case '\\': b.append("\\\\"); break;
+        case '\n': b.append("\\n"); break;
+        case '\r': b.append("\\r"); break;
+        case '\t': b.append("\\t"); break;
+        default:
+          if(c < 0x20){
+            b.append(String.format("\\u%04x", (int) c));
+          } else {
+            b.append(c);
+          }
+      }
+    }
+    return b.append('"').toString();
+  }
+}
@@ -0,0 +1,125 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.CoreferenceScore;
+import cs224n.coref.ClusterAssignment;
+import cs224n.coref.Document;
+import cs224n.coref.Entity;
+import cs224n.coref.Mention;
+import cs224n.coref.Sentence;
+import cs224n.ling.Tree;
+import cs224n.util.StringUtils;
+
+import java.util.*;
+
+/**
+ * A self-contained check of ScoreKernel against the entity based scorer it replaced.
+ * It builds synthetic documents with random response and gold clusterings, and checks that
+ * the kernel's contribution of each document to the MUC and B^3 sums is exactly the one computed
+ * by CoreferenceScore's reference implementation; otherwise the check fails with an exception.
+ * No data is needed.
+ *
+ * The documents cover the cases the kernel treats specially: gold mentions the system was not
+ * given, system mentions which are in no gold cluster, empty gold clusters, and documents with
+ * no mentions on either side.
+ *
+ * Usage: java cs224n.assignments.ScoreCheck [-documents 10000] [-maxMentions 12] [-seed 42]
+ */
+public class ScoreCheck {
+
+  /** A synthetic document, with the system's clustering and the gold clusters */
+  private static class Case {
+    private final ClusterAssignment guess;
+    private final List<Entity> gold;
+    private Case(ClusterAssignment guess, List<Entity> gold){
+      this.guess = guess;
+      this.gold = gold;
+    }
+  }
+
+  private ScoreCheck(){}
+
+  /**
+   * Create a random document: a pool of one-word mentions, some given to the system, and some in
+   * gold clusters (possibly the same ones)
+   */
+  private static Case randomCase(Random rand, int id, int maxMentions){
+    //--Document
+    int length = rand.nextInt(maxMentions + 1);
+    List<String> words = new ArrayList<String>(length);
+    List<String> tags = new ArrayList<String>(length);
+    List<Tree<String>> leaves = new ArrayList<Tree<String>>(length);
+    for(int i=0; i<length; i++){
+      words.add("w" + i);
+      tags.add("NN");
+      leaves.add(new Tree<String>("NN", Collections.singletonList(new Tree<String>("w" + i))));
+    }
+    Sentence sentence = new Sentence(words, words, tags, Collections.nCopies(length, "O"),
+        Collections.nCopies(length, "speaker"), new Tree<String>("ROOT", leaves));
+    Document doc = new Document("synthetic-" + id, Collections.singletonList(sentence));
+    List<Mention> pool = new ArrayList<Mention>(length);
+    for(int i=0; i<length; i++){
+      pool.add(new Mention(doc, sentence, i, i + 1, leaves.get(i), i));
+    }
+    Collections.shuffle(pool, rand);
+    //--Response
+    //(the system is given a random subset of the pool; the rest can only be gold-only mentions)
+    List<Mention> mentions = new ArrayList<Mention>();
+    for(Mention m : pool){
+      if(rand.nextInt(4) != 0){ mentions.add(m); }
+    }
+    doc.setMentions(mentions);
+    int responseClusters = 1 + rand.nextInt(Math.max(1, mentions.size()));
+    int[] clusters = new int[mentions.size()];
+    for(int i=0; i<clusters.length; i++){ clusters[i] = rand.nextInt(responseClusters); }
+    ClusterAssignment guess = new ClusterAssignment(mentions, clusters);
+    //--Gold
+    //(each mention of the pool is in no gold cluster (a response-only mention if the system has it),
+    // or in one of a few clusters, some of which may stay empty)
+    int goldClusters = 1 + rand.nextInt(Math.max(1, length));
+    List<List<Mention>> members = new ArrayList<List<Mention>>(goldClusters);
+    for(int c=0; c<goldClusters; c++){ members.add(new ArrayList<Mention>()); }
+    for(Mention m : pool){
+      if(rand.nextInt(5) != 0){ members.get(rand.nextInt(goldClusters)).add(m); }
+    }
+    List<Entity> gold = new ArrayList<Entity>(goldClusters);
+    for(List<Mention> cluster : members){ gold.add(new Entity(mentions, cluster)); }
+    if(rand.nextInt(4) == 0){ gold.add(new Entity(mentions)); }
+    return new Case(guess, gold);
+  }
+
+  public static void main(String[] args){
+    //--Get Properties
+    Properties props = StringUtils.argsToProperties(args);
+    int numDocs = Integer.parseInt(props.getProperty("documents", "10000"));
+    int maxMentions = Integer.parseInt(props.getProperty("maxMentions", "12"));
+    Random rand = new Random(Long.parseLong(props.getProperty("seed", "42")));
+    //--Check
+    int goldOnly = 0;
+    int responseOnly = 0;
+    int emptyGold = 0;
+    int empty = 0;
+    for(int d=0; d<numDocs; d++){
+      Case c = randomCase(rand, d, maxMentions);
+      ScoreKernel.Counts counts = ScoreKernel.score(CoreferenceScore.contingency(c.guess, c.gold));
+      ScoreKernel.Counts reference = CoreferenceScore.referenceCounts(c.guess.toEntities(), c.gold);
+      if(!counts.equals(reference)){
+        throw new IllegalStateException("Scoring kernel disagrees on document " + d + ": " + counts + " vs. " + reference);
+      }
+      //(count the cases covered)
+      Set<Mention> goldMentions = new HashSet<Mention>();
+      boolean hasEmpty = false;
+      for(Entity e : c.gold){
+        goldMentions.addAll(e.mentions);
+        if(e.mentions.isEmpty()){ hasEmpty = true; }
+      }
+      Set<Mention> responseMentions = new HashSet<Mention>(c.guess.mentions);
+      if(!responseMentions.containsAll(goldMentions)){ goldOnly += 1; }
+      if(!goldMentions.containsAll(responseMentions)){ responseOnly += 1; }
+      if(hasEmpty){ emptyGold += 1; }
+      if(responseMentions.isEmpty() || goldMentions.isEmpty()){ empty += 1; }
+    }
+    System.out.println(numDocs + " documents: " + goldOnly + " with gold-only mentions, " + responseOnly + " with response-only mentions, " +
+        emptyGold + " with empty gold clusters, " + empty + " with no mentions on a side");
+    System.out.println("OK");
+  }
+}
@@ -0,0 +1,221 @@
+package cs224n.assignments;
+
+/**
+ * Computes a document's contribution to the MUC and B^3 scores from flat cluster labels,
+ * in time linear in the number of mentions.
+ *
+ * The mentions of a document are numbered as slots: slots 0..responseMentions-1 are the mentions
+ * the system clustered (Document.getMentions(), in order), and any later slots are gold mentions
+ * which the system was not given (e.g., when running on predicted mentions). Each slot has a
+ * response label (its cluster in the system's output, or -1) and a gold label (its gold cluster,
+ * or -1). MUC is computed from the number of distinct (response, gold) pairs, which is the
+ * number of nonempty cells of the contingency table of the two clusterings; B^3 from the size
+ * of the cell each mention falls in. Only the nonempty cells are visited: mentions are bucketed
+ * by response cluster, and each bucket is counted into a scratch array over gold clusters.
+ *
+ * The results agree exactly with those of the entity based implementation in CoreferenceScore,
+ * including its treatment of mentions only one side knows about (see Counts).
+ */
+public class ScoreKernel {
+
+  /**
+   * The numerators and denominators of one document's scores, to be added to a corpus' sums.
+   * B^3 iterates over the system's mentions only, in both directions (so that a gold mention
+   * the system was not given lowers neither score); a direction whose clusters are all empty
+   * does not count the document at all.
+   */
+  public static class Counts {
+    public final long mucPrecisionNumer;
+    public final long mucPrecisionDenom;
+    public final long mucRecallNumer;
+    public final long mucRecallDenom;
+    public final double b3PrecisionNumer;
+    public final double b3PrecisionDenom;
+    public final double b3RecallNumer;
+    public final double b3RecallDenom;
+    public Counts(long mucPrecisionNumer, long mucPrecisionDenom, long mucRecallNumer, long mucRecallDenom,
+                  double b3PrecisionNumer, double b3PrecisionDenom, double b3RecallNumer, double b3RecallDenom){
+      this.mucPrecisionNumer = mucPrecisionNumer;
+      this.mucPrecisionDenom = mucPrecisionDenom;
+      this.mucRecallNumer = mucRecallNumer;
+      this.mucRecallDenom = mucRecallDenom;
+      this.b3PrecisionNumer = b3PrecisionNumer;
+      this.b3PrecisionDenom = b3PrecisionDenom;
+      this.b3RecallNumer = b3RecallNumer;
+      this.b3RecallDenom = b3RecallDenom;
+    }
+
+    public boolean equals(Object o){
+      if(!(o instanceof Counts)){ return false; }
+      Counts other = (Counts) o;
+      return mucPrecisionNumer == other.mucPrecisionNumer && mucPrecisionDenom == other.mucPrecisionDenom &&
+          mucRecallNumer == other.mucRecallNumer && mucRecallDenom == other.mucRecallDenom &&
+          b3PrecisionNumer == other.b3PrecisionNumer && b3PrecisionDenom == other.b3PrecisionDenom &&
+          b3RecallNumer == other.b3RecallNumer && b3RecallDenom == other.b3RecallDenom;
+    }
+    public int hashCode(){
+      return (int) (mucPrecisionNumer ^ (mucRecallNumer << 16)) ^ Double.valueOf(b3PrecisionNumer).hashCode() ^ Double.valueOf(b3RecallNumer).hashCode();
+    }
+    public String toString(){
+      return "MUC P " + mucPrecisionNumer + "/" + mucPrecisionDenom + ", MUC R " + mucRecallNumer + "/" + mucRecallDenom +
+          ", B^3 P " + b3PrecisionNumer + "/" + b3PrecisionDenom + ", B^3 R " + b3RecallNumer + "/" + b3RecallDenom;
+    }
+  }
+
+  /**
+   * The contingency table of a document's response and gold clusterings: the sizes of the
+   * clusters on each side, and the nonempty cells (the (response, gold) pairs of clusters
+   * sharing at least one mention), with the number of mentions each shares.
+   */
+  public static class Contingency {
+    /** The response cluster of each slot, or -1 */
+    public final int[] response;
+    /** The gold cluster of each slot, or -1 */
+    public final int[] gold;
+    /** The number of slots which are the system's mentions (the first slots) */
+    public final int responseMentions;
+    /** The size of each response cluster */
+    public final int[] responseSize;
+    /** The size of each gold cluster (possibly 0) */
+    public final int[] goldSize;
+    /** The number of slots with a response (resp. gold) cluster */
+    public final int responseCount, goldCount;
+    /** The number of nonempty cells */
+    public final int cellCount;
+    /** The response cluster, gold cluster and size of each nonempty cell (in the first cellCount entries) */
+    public final int[] cellResponse, cellGold, cellSize;
+    /** The size of the cell of each slot, or 0 if the slot lacks a response or gold cluster */
+    public final int[] overlap;
+
+    private Contingency(int[] response, int[] gold, int responseMentions, int[] responseSize, int[] goldSize,
+                        int responseCount, int goldCount, int cellCount, int[] cellResponse, int[] cellGold, int[] cellSize, int[] overlap){
+      this.response = response;
+      this.gold = gold;
+      this.responseMentions = responseMentions;
+      this.responseSize = responseSize;
+      this.goldSize = goldSize;
+      this.responseCount = responseCount;
+      this.goldCount = goldCount;
+      this.cellCount = cellCount;
+      this.cellResponse = cellResponse;
+      this.cellGold = cellGold;
+      this.cellSize = cellSize;
+      this.overlap = overlap;
+    }
+  }
+
+  private ScoreKernel(){ }
+
+  /**
+   * Score one document
+   * @param response The response cluster of each slot, between 0 and responseClusters-1, or -1;
+   *                 every one of the first responseMentions slots must have a response cluster
+   * @param responseClusters The number of response clusters (all nonempty)
+   * @param responseMentions The number of slots which are the system's mentions
+   * @param gold The gold cluster of each slot, between 0 and goldClusters-1, or -1
+   * @param goldClusters The number of gold clusters, counting any empty ones
+   * @return The document's contribution to each score
+   */
+  public static Counts score(int[] response, int responseClusters, int responseMentions, int[] gold, int goldClusters){
+    return score(contingency(response, responseClusters, responseMentions, gold, goldClusters));
+  }
+
+  /**
+   * Build the contingency table of a document (see score() for the arguments)
+   */
+  public static Contingency contingency(int[] response, int responseClusters, int responseMentions, int[] gold, int goldClusters){
+    int slots = response.length;
+    if(gold.length != slots){ throw new IllegalArgumentException("Response and gold labels have different lengths"); }
+    //--Cluster Sizes
+    int[] responseSize = new int[responseClusters];
+    int[] goldSize = new int[goldClusters];
+    int responseCount = 0;
+    int goldCount = 0;
+    for(int i=0; i<slots; i++){
+      if(response[i] >= 0){ responseSize[response[i]] += 1; responseCount += 1; }
+      if(gold[i] >= 0){ goldSize[gold[i]] += 1; goldCount += 1; }
+    }
+    //--Contingency Table
+    //(bucket slots by response cluster)
+    int[] start = new int[responseClusters + 1];
+    for(int c=0; c<responseClusters; c++){ start[c + 1] = start[c] + responseSize[c]; }
+    int[] fill = new int[responseClusters];
+    System.arraycopy(start, 0, fill, 0, responseClusters);
+    int[] bucketed = new int[responseCount];
+    for(int i=0; i<slots; i++){
+      if(response[i] >= 0){ bucketed[fill[response[i]]++] = i; }
+    }
+    //(count the cells of each bucket; overlap[i] is the size of slot i's cell)
+    int[] overlap = new int[slots];
+    int[] cell = new int[goldClusters];
+    int[] cellResponse = new int[responseCount];
+    int[] cellGold = new int[responseCount];
+    int[] cellSize = new int[responseCount];
+    int cells = 0;
+    for(int c=0; c<responseClusters; c++){
+      int firstCell = cells;
+      for(int k=start[c]; k<start[c + 1]; k++){
+        int g = gold[bucketed[k]];
+        if(g >= 0){
+          if(cell[g] == 0){
+            cellResponse[cells] = c;
+            cellGold[cells] = g;
+            cells += 1;
+          }
+          cell[g] += 1;
+        }
+      }
+      for(int k=firstCell; k<cells; k++){ cellSize[k] = cell[cellGold[k]]; }
+      for(int k=start[c]; k<start[c + 1]; k++){
+        int g = gold[bucketed[k]];
+        if(g >= 0){ overlap[bucketed[k]] = cell[g]; }
+      }
+      for(int k=firstCell; k<cells; k++){ cell[cellGold[k]] = 0; }
+    }
+    return new Contingency(response, gold, responseMentions, responseSize, goldSize,
+        responseCount, goldCount, cells, cellResponse, cellGold, cellSize, overlap);
+  }
+
+  /**
+   * Score one document from its contingency table
+   * @param table The contingency table of the document
+   * @return The document's contribution to each score
+   */
+  public static Counts score(Contingency table){
+    int slots = table.response.length;
+    int[] response = table.response;
+    int[] gold = table.gold;
+    int[] overlap = table.overlap;
+    int responseCount = table.responseCount;
+    int goldCount = table.goldCount;
+    int responseMentions = table.responseMentions;
+    long cells = table.cellCount;
+    //--MUC
+    //(a cluster is split into one partition per cell it overlaps, plus one per mention the other side lacks)
+    int responseOnly = 0;
+    int goldOnly = 0;
+    for(int i=0; i<slots; i++){
+      if(response[i] >= 0 && gold[i] < 0){ responseOnly += 1; }
+      if(gold[i] >= 0 && response[i] < 0){ goldOnly += 1; }
+    }
+    long mucPrecisionNumer = responseCount - (cells + responseOnly);
+    long mucPrecisionDenom = responseCount - table.responseSize.length;
+    long mucRecallNumer = goldCount - (cells + goldOnly);
+    long mucRecallDenom = goldCount - table.goldSize.length;
+    //--B^3
+    double b3PrecisionNumer = 0.0;
+    double b3RecallNumer = 0.0;
+    for(int i=0; i<responseMentions; i++){
+      //(a mention without a gold cluster is correct with respect to none of its cluster-mates)
+      if(gold[i] >= 0){
+        b3PrecisionNumer += ((double) overlap[i]) / ((double) table.responseSize[response[i]]);
+        b3RecallNumer += ((double) overlap[i]) / ((double) table.goldSize[gold[i]]);
+      }
+    }
+    boolean hasResponse = responseCount > 0;
+    boolean hasGold = goldCount > 0;
+    return new Counts(mucPrecisionNumer, mucPrecisionDenom, mucRecallNumer, mucRecallDenom,
+        hasResponse ? b3PrecisionNumer : 0.0, hasResponse ? (double) responseMentions : 0.0,
+        hasGold ? b3RecallNumer : 0.0, hasGold ? (double) responseMentions : 0.0);
+  }
+}
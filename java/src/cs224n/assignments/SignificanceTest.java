@@ -0,0 +1,259 @@
+package cs224n.assignments;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Paired significance tests of the difference in F1 between two coreference systems run on
+ * the same documents: the paired bootstrap (Efron and Tibshirani 1993; Berg-Kirkpatrick et al. 2012)
+ * and approximate randomization (Noreen 1989).
+ *
+ * Both tests work on each document's contribution to the MUC and B^3 scores (the ScoreKernel.Counts
+ * which CoreferenceScore keeps for every document), so a resample only adds up a few numbers per
+ * document; coreference is never run again. Resamples are split into fixed blocks, each with its own
+ * random number generator seeded from the seed and the block's index, and the blocks are run on a
+ * pool of threads; the results depend on the seed, but not on the number of threads.
+ */
+public class SignificanceTest {
+
+  /** The scores compared */
+  public static enum Metric { MUC, B3, AVERAGE }
+
+  /** The comparison of two systems on one metric */
+  public static class Result {
+    public final Metric metric;
+    /** The F1 of each system, and their difference (first minus second) */
+    public final double f1A, f1B, difference;
+    /** The 95% bootstrap percentile interval of each system's F1, and of the difference */
+    public final double[] intervalA, intervalB, intervalDifference;
+    /** The two-sided p-value of the difference under the paired bootstrap */
+    public final double bootstrapP;
+    /** The two-sided p-value of the difference under approximate randomization */
+    public final double randomizationP;
+    private Result(Metric metric, double f1A, double f1B, double[] intervalA, double[] intervalB,
+                   double[] intervalDifference, double bootstrapP, double randomizationP){
+      this.metric = metric;
+      this.f1A = f1A;
+      this.f1B = f1B;
+      this.difference = f1A - f1B;
+      this.intervalA = intervalA;
+      this.intervalB = intervalB;
+      this.intervalDifference = intervalDifference;
+      this.bootstrapP = bootstrapP;
+      this.randomizationP = randomizationP;
+    }
+  }
+
+  /** The number of resamples drawn from one random number generator */
+  private static final int BLOCK = 256;
+  /** The number of sufficient statistics per document (as in ScoreKernel.Counts) */
+  private static final int STATS = 8;
+
+  //(the sufficient statistics of each document, [document * STATS + statistic])
+  private final double[] statsA;
+  private final double[] statsB;
+  private final int documents;
+
+  /**
+   * Prepare to compare two systems
+   * @param a The contribution of every document to the first system's scores
+   * @param b The contribution of every document to the second system's scores, in the same order
+   */
+  public SignificanceTest(List<ScoreKernel.Counts> a, List<ScoreKernel.Counts> b){
+    if(a.size() != b.size()){ throw new IllegalArgumentException("Systems were scored on different numbers of documents: " + a.size() + " and " + b.size()); }
+    this.documents = a.size();
+    this.statsA = flatten(a);
+    this.statsB = flatten(b);
+  }
+
+  private static double[] flatten(List<ScoreKernel.Counts> counts){
+    double[] stats = new double[counts.size() * STATS];
+    int i = 0;
+    for(ScoreKernel.Counts c : counts){
+      stats[i++] = c.mucPrecisionNumer;
+      stats[i++] = c.mucPrecisionDenom;
+      stats[i++] = c.mucRecallNumer;
+      stats[i++] = c.mucRecallDenom;
+      stats[i++] = c.b3PrecisionNumer;
+      stats[i++] = c.b3PrecisionDenom;
+      stats[i++] = c.b3RecallNumer;
+      stats[i++] = c.b3RecallDenom;
+    }
+    return stats;
+  }
+
+  /**
+   * Run both tests
+   * @param resamples The number of bootstrap resamples, and of randomization trials
+   * @param seed The random seed
+   * @param numThreads The number of threads to run resamples on
+   * @return The comparison on every metric, in the order of Metric.values()
+   */
+  public List<Result> run(final int resamples, final long seed, int numThreads) throws InterruptedException {
+    Metric[] metrics = Metric.values();
+    //--Observed Scores
+    double[] totalA = new double[STATS];
+    double[] totalB = new double[STATS];
+    for(int d=0; d<documents; d++){
+      for(int s=0; s<STATS; s++){
+        totalA[s] += statsA[d * STATS + s];
+        totalB[s] += statsB[d * STATS + s];
+      }
+    }
+    final double[] observed = new double[metrics.length];
+    double[] observedA = new double[metrics.length];
+    double[] observedB = new double[metrics.length];
+    for(Metric m : metrics){
+      observedA[m.ordinal()] = f1(m, totalA);
+      observedB[m.ordinal()] = f1(m, totalB);
+      observed[m.ordinal()] = observedA[m.ordinal()] - observedB[m.ordinal()];
+    }
+    //--Resample
+    //(sampled scores, [metric][resample]; each block writes its own range)
+    final double[][] sampledA = new double[metrics.length][resamples];
+    final double[][] sampledB = new double[metrics.length][resamples];
+    final long[][] randomizedAtLeast = new long[(resamples + BLOCK - 1) / BLOCK][];
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+    try {
+      List<Future<?>> blocks = new ArrayList<Future<?>>();
+      for(int block=0; block<randomizedAtLeast.length; block++){
+        final int index = block;
+        blocks.add(pool.submit(new Runnable(){
+          public void run(){
+            int start = index * BLOCK;
+            int end = Math.min(resamples, start + BLOCK);
+            Random rand = new Random(seed + 0x9E3779B97F4A7C15L * (index + 1));
+            bootstrap(rand, start, end, sampledA, sampledB);
+            randomizedAtLeast[index] = randomize(rand, end - start, observed);
+          }
+        }));
+      }
+      for(Future<?> block : blocks){
+        try {
+          block.get();
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    //--Summarize
+    List<Result> results = new ArrayList<Result>(metrics.length);
+    for(Metric m : metrics){
+      int k = m.ordinal();
+      double[] differences = new double[resamples];
+      long bootstrapAtLeast = 0;
+      for(int r=0; r<resamples; r++){
+        differences[r] = sampledA[k][r] - sampledB[k][r];
+        //(the bootstrap distribution, shifted to be centered on no difference)
+        if(Math.abs(differences[r] - observed[k]) >= Math.abs(observed[k])){ bootstrapAtLeast += 1; }
+      }
+      long randomAtLeast = 0;
+      for(long[] block : randomizedAtLeast){ randomAtLeast += block[k]; }
+      results.add(new Result(m, observedA[k], observedB[k],
+          interval(sampledA[k]), interval(sampledB[k]), interval(differences),
+          (bootstrapAtLeast + 1.0) / (resamples + 1.0), (randomAtLeast + 1.0) / (resamples + 1.0)));
+    }
+    return results;
+  }
+
+  /**
+   * Draw resamples start..end-1 of the documents (with replacement), and score both systems on each
+   */
+  private void bootstrap(Random rand, int start, int end, double[][] sampledA, double[][] sampledB){
+    double[] sumA = new double[STATS];
+    double[] sumB = new double[STATS];
+    for(int r=start; r<end; r++){
+      Arrays.fill(sumA, 0.0);
+      Arrays.fill(sumB, 0.0);
+      for(int i=0; i<documents; i++){
+        int offset = rand.nextInt(documents) * STATS;
+        for(int s=0; s<STATS; s++){
+          sumA[s] += statsA[offset + s];
+          sumB[s] += statsB[offset + s];
+        }
+      }
+      for(Metric m : Metric.values()){
+        sampledA[m.ordinal()][r] = f1(m, sumA);
+        sampledB[m.ordinal()][r] = f1(m, sumB);
+      }
+    }
+  }
+
+  /**
+   * Run randomization trials, each swapping the two systems' outputs on a random half of the documents
+   * @return The number of trials, for each metric, with a difference at least as large as the observed one
+   */
+  private long[] randomize(Random rand, int trials, double[] observed){
+    Metric[] metrics = Metric.values();
+    long[] atLeast = new long[metrics.length];
+    double[] sumA = new double[STATS];
+    double[] sumB = new double[STATS];
+    for(int t=0; t<trials; t++){
+      Arrays.fill(sumA, 0.0);
+      Arrays.fill(sumB, 0.0);
+      for(int d=0; d<documents; d++){
+        boolean swap = rand.nextBoolean();
+        double[] toA = swap ? statsB : statsA;
+        double[] toB = swap ? statsA : statsB;
+        for(int s=0; s<STATS; s++){
+          sumA[s] += toA[d * STATS + s];
+          sumB[s] += toB[d * STATS + s];
+        }
+      }
+      for(Metric m : metrics){
+        if(Math.abs(f1(m, sumA) - f1(m, sumB)) >= Math.abs(observed[m.ordinal()])){ atLeast[m.ordinal()] += 1; }
+      }
+    }
+    return atLeast;
+  }
+
+  /**
+   * The F1 of a metric from summed statistics, as CoreferenceScore computes it
+   */
+  private static double f1(Metric metric, double[] sums){
+    switch(metric){
+      case MUC:
+        //(a MUC score with nothing to link is 1.0, as in CoreferenceScore.muc())
+        return f1(sums[1] == 0 ? 1.0 : sums[0] / sums[1], sums[3] == 0 ? 1.0 : sums[2] / sums[3]);
+      case B3:
+        return f1(sums[5] == 0 ? 0.0 : sums[4] / sums[5], sums[7] == 0 ? 0.0 : sums[6] / sums[7]);
+      case AVERAGE:
+        return (f1(Metric.MUC, sums) + f1(Metric.B3, sums)) / 2.0;
+      default:
+        throw new IllegalArgumentException("Unknown metric: " + metric);
+    }
+  }
+
+  private static double f1(double prec, double rec){
+    return prec + rec == 0.0 ? 0.0 : 2.0*(prec*rec)/(prec+rec);
+  }
+
+  /** The 95% percentile interval of some samples (sorting them) */
+  private static double[] interval(double[] samples){
+    if(samples.length == 0){ return new double[]{ Double.NaN, Double.NaN }; }
+    Arrays.sort(samples);
+    return new double[]{ samples[(int) Math.floor(0.025 * (samples.length - 1))],
+                         samples[(int) Math.ceil(0.975 * (samples.length - 1))] };
+  }
+
+  /**
+   * Print a comparison
+   * @param nameA The name of the first system
+   * @param nameB The name of the second system
+   * @param results The results of run()
+   */
+  public static void report(String nameA, String nameB, List<Result> results){
+    System.out.println("A: " + nameA);
+    System.out.println("B: " + nameB);
+    for(Result r : results){
+      System.out.println("    " + (r.metric == Metric.AVERAGE ? "(MUC+B^3)/2" : (r.metric == Metric.B3 ? "B^3" : "MUC")) + " F1");
+      System.out.println("A:                " + r.f1A + "  (95% CI " + r.intervalA[0] + " to " + r.intervalA[1] + ")");
+      System.out.println("B:                " + r.f1B + "  (95% CI " + r.intervalB[0] + " to " + r.intervalB[1] + ")");
+      System.out.println("A-B:              " + r.difference + "  (95% CI " + r.intervalDifference[0] + " to " + r.intervalDifference[1] + ")");
+      System.out.println("Bootstrap p:      " + r.bootstrapP);
+      System.out.println("Randomization p:  " + r.randomizationP);
+    }
+  }
+}
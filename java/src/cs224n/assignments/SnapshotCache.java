@@ -0,0 +1,231 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.SerializedDatum;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent cache of decoded datums. The first time a source file (e.g., a plaintext .dat
+ * file) is decoded, the datum is also written to a snapshot in the compact binary format of
+ * BinaryDatumCodec; later runs read the snapshot instead of decoding the source again.
+ *
+ * Each snapshot records the path, size, modification time and SHA-1 hash of its source.
+ * A snapshot is used if the source's size and modification time still match; if only the
+ * modification time changed, the source is hashed, and the snapshot is kept (with the new
+ * time) if the content is the same. Otherwise the snapshot is stale, and is rebuilt; so is
+ * a snapshot which is truncated or cannot be decoded (the mentions and clusters of a datum
+ * are only decoded when first used, so only their framing is checked here).
+ * The layout of a snapshot is:
+ * <pre>
+ *   magic ("CRS1"), version, source path (length, UTF-8 bytes), source size, source mtime,
+ *   source SHA-1 (20 bytes), binary datum (length, bytes)
+ * </pre>
+ * with big-endian fixed-width integers.
+ */
+public class SnapshotCache {
+  /** The file extension of snapshots */
+  public static final String EXTENSION = ".snap";
+  /** The current version of the format */
+  public static final int VERSION = 1;
+
+  private static final byte[] MAGIC = new byte[]{ 'C', 'R', 'S', '1' };
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** The header of a snapshot, describing its source */
+  private static class Header {
+    private final String path;
+    private final long size;
+    private final long mtime;
+    private final byte[] hash;
+    private Header(String path, long size, long mtime, byte[] hash){
+      this.path = path;
+      this.size = size;
+      this.mtime = mtime;
+      this.hash = hash;
+    }
+  }
+
+  private final File directory;
+  private final AtomicInteger hits = new AtomicInteger(0);
+  private final AtomicInteger misses = new AtomicInteger(0);
+  private final AtomicInteger stale = new AtomicInteger(0);
+  private final AtomicInteger touched = new AtomicInteger(0);
+
+  /**
+   * Create a snapshot cache
+   * @param directory The directory to keep snapshots in; it is created if it does not exist
+   */
+  public SnapshotCache(File directory){
+    if(!directory.exists() && !directory.mkdirs()){ throw new IllegalArgumentException("Could not create snapshot directory: " + directory); }
+    if(!directory.isDirectory()){ throw new IllegalArgumentException("Not a directory: " + directory); }
+    this.directory = directory;
+  }
+
+  /**
+   * Get the datum of a source file, from its snapshot if it is up to date, and
+   * otherwise by decoding the source (and saving a new snapshot).
+   * @param source The source file
+   * @return The decoded datum
+   * @throws IOException If a file could not be read or written
+   */
+  public SerializedDatum get(File source) throws IOException {
+    String path = source.getAbsolutePath();
+    File snapshot = snapshotFile(path);
+    long size = source.length();
+    long mtime = source.lastModified();
+    //--Try Snapshot
+    if(snapshot.exists()){
+      ByteBuffer buffer = readFully(snapshot);
+      Header header = readHeader(buffer);
+      if(header != null && header.path.equals(path) && header.size == size){
+        if(header.mtime == mtime){
+          //(case: up to date)
+          SerializedDatum datum = readDatum(buffer);
+          if(datum != null){
+            hits.incrementAndGet();
+            return datum;
+          }
+        } else {
+          byte[] hash = hash(source);
+          if(Arrays.equals(hash, header.hash)){
+            //(case: touched, but the same content)
+            SerializedDatum datum = readDatum(buffer);
+            if(datum != null){
+              touched.incrementAndGet();
+              write(snapshot, new Header(path, size, mtime, hash), datum);
+              return datum;
+            }
+          }
+        }
+      }
+      stale.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    //--Decode Source
+    SerializedDatum datum = CoreferenceTester.readDatum(source);
+    write(snapshot, new Header(path, size, mtime, hash(source)), datum);
+    return datum;
+  }
+
+  /** A one line summary of how snapshots were used */
+  public String stats(){
+    return hits.get() + " hits, " + touched.get() + " touched but unchanged, " +
+        misses.get() + " missing, " + stale.get() + " stale";
+  }
+
+  private File snapshotFile(String path){
+    StringBuilder name = new StringBuilder();
+    for(byte b : digest().digest(path.getBytes(UTF8))){
+      name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return new File(directory, name.append(EXTENSION).toString());
+  }
+
+  //--------------
+  // FILE FORMAT
+  //--------------
+
+  private static Header readHeader(ByteBuffer in){
+    try {
+      for(byte b : MAGIC){
+        if(in.get() != b){ return null; }
+      }
+      if(in.getInt() != VERSION){ return null; }
+      byte[] pathBytes = new byte[in.getInt()];
+      in.get(pathBytes);
+      long size = in.getLong();
+      long mtime = in.getLong();
+      byte[] hash = new byte[20];
+      in.get(hash);
+      return new Header(new String(pathBytes, UTF8), size, mtime, hash);
+    } catch (RuntimeException e) {
+      return null;  // a truncated or corrupt snapshot is simply stale
+    }
+  }
+
+  private static SerializedDatum readDatum(ByteBuffer in){
+    try {
+      int length = in.getInt();
+      if(length != in.remaining()){ return null; }
+      SerializedDatum datum = BinaryDatumCodec.decode(in);
+      if(in.hasRemaining()){ return null; }
+      return datum;
+    } catch (RuntimeException e) {
+      return null;  // a truncated or corrupt snapshot is simply stale
+    }
+  }
+
+  private static void write(File snapshot, Header header, SerializedDatum datum) throws IOException {
+    byte[] pathBytes = header.path.getBytes(UTF8);
+    byte[] body = BinaryDatumCodec.encode(datum);
+    //(write to a temporary file, so that readers never see a partial snapshot)
+    File tmp = File.createTempFile(snapshot.getName(), ".tmp", snapshot.getParentFile());
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(pathBytes.length);
+      out.write(pathBytes);
+      out.writeLong(header.size);
+      out.writeLong(header.mtime);
+      out.write(header.hash);
+      out.writeInt(body.length);
+      out.write(body);
+    } finally {
+      out.close();
+    }
+    if(!tmp.renameTo(snapshot)){
+      snapshot.delete();
+      if(!tmp.renameTo(snapshot)){
+        tmp.delete();
+        throw new IOException("Could not write snapshot: " + snapshot);
+      }
+    }
+  }
+
+  private static ByteBuffer readFully(File file) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while(buffer.hasRemaining()){
+        if(channel.read(buffer) < 0){ break; }
+      }
+      buffer.flip();
+      return buffer;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static byte[] hash(File file) throws IOException {
+    MessageDigest digest = digest();
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[8192];
+      int read;
+      while((read = in.read(buffer)) >= 0){
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+    return digest.digest();
+  }
+
+  private static MessageDigest digest(){
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package cs224n.coref;
+
+import java.util.*;
+
+/**
+ * A flat clustering of a list of mentions (usually Document.getMentions()): the id of
+ * the cluster of the i'th mention is clusterOf(i). This is a compact alternative to
+ * returning a List of ClusteredMentions, which needs an Entity (with a HashSet of mentions)
+ * for every cluster and a ClusteredMention for every mention.
+ *
+ * Cluster ids are normalized to 0..clusterCount()-1, numbered in the order of the
+ * first mention of each cluster, so that two assignments of the same clustering are
+ * identical. toClusteredMentions() and fromClusteredMentions() convert to and from the list form.
+ */
+public class ClusterAssignment {
+
+  /** The mentions being clustered */
+  public final List<Mention> mentions;
+  private final int[] clusters;
+  private final int clusterCount;
+
+  /**
+   * Create a cluster assignment
+   * @param mentions The mentions being clustered
+   * @param clusters The cluster of each mention, as any id between 0 and mentions.size()-1;
+   *                 mentions with the same id are in the same cluster
+   */
+  public ClusterAssignment(List<Mention> mentions, int[] clusters){
+    if(clusters.length != mentions.size()){ throw new IllegalArgumentException("Assigned " + clusters.length + " clusters to " + mentions.size() + " mentions"); }
+    this.mentions = mentions;
+    this.clusters = new int[clusters.length];
+    //(renumber clusters in order of first mention)
+    int[] renumbered = new int[clusters.length];
+    Arrays.fill(renumbered, -1);
+    int count = 0;
+    for(int i=0; i<clusters.length; i++){
+      int id = clusters[i];
+      if(id < 0 || id >= clusters.length){ throw new IllegalArgumentException("Cluster id out of range: " + id); }
+      if(renumbered[id] < 0){ renumbered[id] = count++; }
+      this.clusters[i] = renumbered[id];
+    }
+    this.clusterCount = count;
+  }
+
+  /**
+   * @param i The index of a mention
+   * @return The id of the cluster of the mention
+   */
+  public int clusterOf(int i){ return clusters[i]; }
+
+  /**
+   * @param i The index of a mention
+   * @param j The index of another mention
+   * @return True if the two mentions are in the same cluster
+   */
+  public boolean sameCluster(int i, int j){ return clusters[i] == clusters[j]; }
+
+  /**
+   * @return The number of mentions being clustered
+   */
+  public int size(){ return clusters.length; }
+
+  /**
+   * @return The number of clusters
+   */
+  public int clusterCount(){ return clusterCount; }
+
+  /**
+   * @return The number of mentions in each cluster, indexed by cluster id
+   */
+  public int[] clusterSizes(){
+    int[] sizes = new int[clusterCount];
+    for(int cluster : clusters){ sizes[cluster] += 1; }
+    return sizes;
+  }
+
+  /**
+   * Create an Entity for every cluster, without marking the mentions as coreferent with them.
+   * @return The entities, indexed by cluster id
+   */
+  public List<Entity> toEntities(){
+    List<List<Mention>> members = members();
+    List<Entity> entities = new ArrayList<Entity>(clusterCount);
+    for(List<Mention> cluster : members){
+      entities.add(new Entity(mentions, cluster));
+    }
+    return entities;
+  }
+
+  /**
+   * Create an Entity for every cluster, and mark each mention as coreferent with
+   * the entity of its cluster (as a coreference system's runCoreference() would).
+   * @return A clustered mention for every mention, in the order of the mentions
+   */
+  public List<ClusteredMention> toClusteredMentions(){
+    Entity[] entities = new Entity[clusterCount];
+    List<ClusteredMention> clustered = new ArrayList<ClusteredMention>(clusters.length);
+    for(int i=0; i<clusters.length; i++){
+      Mention mention = mentions.get(i);
+      Entity entity = entities[clusters[i]];
+      if(entity == null){
+        ClusteredMention singleton = mention.markSingleton();
+        entities[clusters[i]] = singleton.entity;
+        clustered.add(singleton);
+      } else {
+        clustered.add(mention.markCoreferent(entity));
+      }
+    }
+    return clustered;
+  }
+
+  private List<List<Mention>> members(){
+    List<List<Mention>> members = new ArrayList<List<Mention>>(clusterCount);
+    for(int c=0; c<clusterCount; c++){ members.add(new ArrayList<Mention>()); }
+    for(int i=0; i<clusters.length; i++){
+      members.get(clusters[i]).add(mentions.get(i));
+    }
+    return members;
+  }
+
+  /**
+   * Convert the output of a coreference system's runCoreference() to a cluster assignment
+   * over the document's mentions. Mentions are in the same cluster if their entities are
+   * the same object.
+   * @param doc The document, with its mentions set
+   * @param clustered The clustered mentions
+   * @return The cluster assignment
+   * @throws IllegalStateException If a mention appears twice, or some mention does not appear
+   */
+  public static ClusterAssignment fromClusteredMentions(Document doc, Collection<ClusteredMention> clustered){
+    List<Mention> mentions = doc.getMentions();
+    if(clustered.size() != mentions.size()){
+      throw new IllegalStateException("You did not assign every entity to a cluster (returned a different sized list)");
+    }
+    int[] clusters = new int[mentions.size()];
+    Arrays.fill(clusters, -1);
+    IdentityHashMap<Entity,Integer> ids = new IdentityHashMap<Entity,Integer>();
+    for(ClusteredMention cm : clustered){
+      int index = doc.indexOfMention(cm.mention);
+      if(clusters[index] >= 0){ throw new IllegalStateException("You added the same mention to the return list twice"); }
+      Integer id = ids.get(cm.entity);
+      if(id == null){
+        id = ids.size();
+        ids.put(cm.entity, id);
+      }
+      clusters[index] = id;
+    }
+    return new ClusterAssignment(mentions, clusters);
+  }
+
+  /**
+   * Convert a set of entities (e.g., the gold clusters) over a list of mentions to a
+   * cluster assignment. Mentions which are in none of the entities are singletons.
+   * @param mentions The mentions being clustered
+   * @param entities The entities
+   * @return The cluster assignment
+   */
+  public static ClusterAssignment fromEntities(List<Mention> mentions, Collection<Entity> entities){
+    Map<Mention,Integer> indices = Entity.indexMentions(mentions);
+    int[] clusters = new int[mentions.size()];
+    Arrays.fill(clusters, -1);
+    for(Entity entity : entities){
+      int id = -1;
+      for(Mention m : entity.mentions){
+        Integer index = indices.get(m);
+        if(index == null){ throw new IllegalArgumentException("Mention is not in mention list: " + m); }
+        if(id < 0){ id = index; }
+        clusters[index] = id;
+      }
+    }
+    for(int i=0; i<clusters.length; i++){
+      if(clusters[i] < 0){ clusters[i] = i; }
+    }
+    return new ClusterAssignment(mentions, clusters);
+  }
+}
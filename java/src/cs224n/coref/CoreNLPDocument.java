@@ -82,7 +82,7 @@ public class CoreNLPDocument implements Serializable {
       //--Case: Span to the Right
       int increment = 0;
       for(Tree<String> child : tree.getChildren()){
-        int delta = child.getYield().size();
+        int delta = child.yieldSize();
         if(posSoFar+increment+delta <= beginInclusive){
           //(case: still to the right)
           increment += delta;
@@ -94,7 +94,7 @@ public class CoreNLPDocument implements Serializable {
       }
       throw new IllegalArgumentException("Should not reach here");
     } else if(posSoFar == beginInclusive){
-      int length = tree.getYield().size();
+      int length = tree.yieldSize();
       if(beginInclusive+length == endExclusive){
         //(case: exact match)
         return tree;
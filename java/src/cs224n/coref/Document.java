@@ -1,8 +1,12 @@
 package cs224n.coref;
 
 import cs224n.util.Decodable;
+import cs224n.util.EncodeVerifier;
+import cs224n.util.LineCursor;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.StringReader;
 import java.util.*;
 
 /**
@@ -10,6 +14,15 @@ import java.util.*;
  * as well as the annotated mentions (which you will cluster into
  * coreferent mentions).
  *
+ * Concurrency: different documents may be processed on different threads at the same time,
+ * but a single document -- together with its mentions, and the entities they are clustered into --
+ * should be used by one thread at a time (e.g., handed from a decoding thread to the thread running
+ * coreference through an executor, which makes the earlier thread's writes visible).
+ * setMentions() should not be called while another thread is using the document.
+ * The lazily built indices (indexOfSentence(), indexOfMention()) and attributes() are
+ * guarded, so concurrent lookups on a shared document are nevertheless safe;
+ * state shared by all documents (entity ids, vocabularies) is thread-safe.
+ *
  * @author Gabor Angeli (angeli at cs.stanford)
  */
 public class Document implements Serializable, Decodable {
@@ -22,7 +35,8 @@ public class Document implements Serializable, Decodable {
    * The sentences in this document
    */
   public final List<Sentence> sentences;
-  private List<Mention> mentions = null;
+  private volatile List<Mention> mentions = null;
+  private transient MentionAttributes attributes = null;
   private final HashMap<Sentence,Integer> sentenceToIndex = new HashMap<Sentence,Integer>();
   private final HashMap<Mention,Integer> mentionToIndex = new HashMap<Mention,Integer>();
 
@@ -45,10 +59,16 @@ public class Document implements Serializable, Decodable {
    * @return The document
    */
   public Document setMentions(List<Mention> mentions){
+    int position = 0;
     for(Mention mention : mentions){
       if(mention.doc != this){ throw new IllegalArgumentException("Mention does not belong to this document: " + mention); }
+      mention.position = position;
+      position += 1;
+    }
+    synchronized(mentionToIndex){
+      this.mentionToIndex.clear();
+      this.mentions = mentions;
     }
-    this.mentions = mentions;
     return this;
   }
 
@@ -63,6 +83,20 @@ public class Document implements Serializable, Decodable {
     return mentions;
   }
 
+  /**
+   * Returns the attributes (head words, pronouns, sentences, etc.) of the mentions associated
+   * with this document. They are computed the first time they are requested
+   * for a given list of mentions, and shared by every later caller.
+   * @return The attributes of the mentions returned by getMentions()
+   */
+  public synchronized MentionAttributes attributes(){
+    List<Mention> current = getMentions();
+    if(attributes == null || attributes.mentions != current){
+      attributes = MentionAttributes.compute(current);
+    }
+    return attributes;
+  }
+
   /**
    * Create a formatted string for the document, including marking the mentions that are
    * coreferent
@@ -197,14 +231,30 @@ public class Document implements Serializable, Decodable {
     return true;
   }
 
+  /**
+   * The index of a sentence in this document.
+   * This reads the position stored on the sentence; the positions of all sentences are
+   * assigned in a single pass (under the index's lock) the first time they are needed.
+   * @param s The sentence
+   * @return The index of the sentence in the document's list of sentences
+   */
   public int indexOfSentence(Sentence s){
-    //(try simple get)
-    Integer cand = sentenceToIndex.get(s);
-    if(cand == null){
-      //(populate map)
-      for(int i=0; i<sentences.size(); i++){
-        if(sentenceToIndex.containsKey(sentences.get(i))){ throw new IllegalStateException("Sentence equals() collision (not your fault!): " + sentences.get(i)); }
-        sentenceToIndex.put(sentences.get(i), i);
+    //(try position; read without the lock, but a stale position fails the check)
+    int position = s.position;
+    if(position >= 0 && position < sentences.size() && sentences.get(position) == s){ return position; }
+    Integer cand;
+    synchronized(sentenceToIndex){
+      //(assign positions, and try again)
+      for(int i=0; i<sentences.size(); i++){ sentences.get(i).position = i; }
+      position = s.position;
+      if(position >= 0 && position < sentences.size() && sentences.get(position) == s){ return position; }
+      //(try simple get)
+      if(sentenceToIndex.isEmpty()){
+        //(populate map)
+        for(int i=0; i<sentences.size(); i++){
+          if(sentenceToIndex.containsKey(sentences.get(i))){ throw new IllegalStateException("Sentence equals() collision (not your fault!): " + sentences.get(i)); }
+          sentenceToIndex.put(sentences.get(i), i);
+        }
       }
       cand = sentenceToIndex.get(s);
     }
@@ -214,16 +264,30 @@ public class Document implements Serializable, Decodable {
     return cand.intValue();
   }
 
+  /**
+   * The index of a mention in this document's mentions (see setMentions()).
+   * This reads the position stored on the mention when its list was set; a mention which
+   * is not itself in the list (but is equal to one which is) is looked up by equals().
+   * @param m The mention
+   * @return The index of the mention in the document's list of mentions
+   */
   public int indexOfMention(Mention m){
+    List<Mention> mentions = this.mentions;
+    //(error check)
+    if(mentions == null){ throw new IllegalStateException("Document has no mentions stored"); }
+    //(try position)
+    int position = m.position;
+    if(m.doc == this && position >= 0 && position < mentions.size() && mentions.get(position) == m){ return position; }
     //(try simple get)
-    Integer cand = mentionToIndex.get(m);
-    if(cand == null){
-      //(error check)
-      if(mentions == null){ throw new IllegalStateException("Document has no mentions stored"); }
-      //(populate map)
-      for(int i=0; i<mentions.size(); i++){
-        if(mentionToIndex.containsKey(mentions.get(i))){ throw new IllegalStateException("Mention equals() collision (not your fault!): " + mentions.get(i)); }
-        mentionToIndex.put(mentions.get(i), i);
+    Integer cand;
+    synchronized(mentionToIndex){
+      mentions = this.mentions;
+      if(mentionToIndex.isEmpty()){
+        //(populate map)
+        for(int i=0; i<mentions.size(); i++){
+          if(mentionToIndex.containsKey(mentions.get(i))){ throw new IllegalStateException("Mention equals() collision (not your fault!): " + mentions.get(i)); }
+          mentionToIndex.put(mentions.get(i), i);
+        }
       }
       cand = mentionToIndex.get(m);
     }
@@ -244,6 +308,8 @@ public class Document implements Serializable, Decodable {
   //--------------
   // SERIALIZATION
   //--------------
+  private static final EncodeVerifier verifier = new EncodeVerifier();
+
   public String encode() {
     StringBuilder b = new StringBuilder();
     //(save id)
@@ -255,24 +321,42 @@ public class Document implements Serializable, Decodable {
     }
     //(end)
     b.append("<end>");
+    String encoded = b.toString();
     //(error check)
-    if(!decode(b.toString()).equals(this)){
+    if(verifier.shouldVerify() && !decode(encoded).equals(this)){
       throw new IllegalStateException("Did not encode Document properly");
     }
-    return b.toString();
+    return encoded;
   }
 
   public static Document decode(String encoded){
-    String[] lines = encoded.split("\n");
+    try {
+      return decode(new LineCursor(new StringReader(encoded)));
+    } catch (IOException e) {
+      throw new RuntimeException(e);  // can't happen reading from a String
+    }
+  }
+
+  /**
+   * Decode a document from a stream of lines, as written by encode().
+   * The cursor is left just after the "&lt;end&gt;" line, and sentences are
+   * decoded one line at a time as they are read.
+   * @param in The lines to read from
+   * @return The decoded document
+   * @throws IOException If the underlying reader fails
+   */
+  public static Document decode(LineCursor in) throws IOException {
     //(get id)
-    String id = lines[0];
+    CharSequence line = in.nextLine();
+    if(line == null){ throw new IllegalStateException("Could not decode document: no id"); }
+    String id = line.toString();
     //(get sentences)
-    if(!lines[1].equals("sentences:")){ throw new IllegalStateException("Could not decode document: " + id + " offending line: " + lines[1]); }
-    int index = 2;
+    line = in.nextLine();
+    if(!LineCursor.lineEquals(line, "sentences:")){ throw new IllegalStateException("Could not decode document: " + id + " offending line: " + line); }
     List<Sentence> sentences = new ArrayList<Sentence>();
-    while(!lines[index].equals("<end>")){
-      sentences.add(Sentence.decode(lines[index]));
-      index += 1;
+    while(!LineCursor.lineEquals(line = in.nextLine(), "<end>")){
+      if(line == null){ throw new IllegalStateException("Could not decode document: " + id + " has no <end>"); }
+      sentences.add(Sentence.decode(line));
     }
     return new Document(id, sentences);
   }
@@ -2,19 +2,25 @@
 
 import cs224n.util.Ansi;
 import cs224n.util.Decodable;
+import cs224n.util.EncodeVerifier;
 import cs224n.util.Pair;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Denotes a real-world entity, as defined by a set of mentions.
  *
+ * Entities are not thread-safe: an entity (like the mentions it holds) belongs to a single
+ * document, and should only be used by the thread processing that document (see Document).
+ * Unique ids are allocated atomically, so entities may be created on several threads at once.
+ *
  * @author Gabor Angeli (angeli at cs.stanford)
  */
 public class Entity implements Serializable, Decodable, Iterable<Mention> {
   private static final long serialVersionUID = 1L;
-  private static int nextUniqueID = 0;
+  private static final AtomicInteger nextUniqueID = new AtomicInteger(0);
 
   private final List<Mention> mentionList;
   /**
@@ -25,7 +31,7 @@ public class Entity implements Serializable, Decodable, Iterable<Mention> {
   /**
    * A unique ID for this entity
    */
-  public final int uniqueID = nextUniqueID++; //set, then increment
+  public final int uniqueID = nextUniqueID.getAndIncrement(); //set, then increment (atomically, as entities may be created on several threads)
 
   /**
    * Create an empty entity.
@@ -122,6 +128,7 @@ public class Entity implements Serializable, Decodable, Iterable<Mention> {
    * An Iterable representing each pair of mentions referring to this entity.
    * This is an order-sensitive iterator; that is, the mentions A and B will
    * show up both as (A,B) and (B,A).
+   * This creates a Pair for every pair of mentions; forEachPair() does not.
    * @return An Iterable representing each pair of mentions referring to this entity.
    */
   public Iterable<Pair<Mention,Mention>> orderedMentionPairs(){
@@ -173,6 +180,66 @@ public class Entity implements Serializable, Decodable, Iterable<Mention> {
     };
   }
 
+  /**
+   * Visits pairs of mentions of an entity; see Entity.forEachPair().
+   * The mentions of a pair are given as indices into an array of the entity's mentions,
+   * so that a visitor can look up anything it precomputed per mention (e.g., lower cased
+   * head words) without hashing the mention.
+   */
+  public static interface PairVisitor {
+    /**
+     * Visit the pair of mentions (mentions[i], mentions[j])
+     * @param mentions The mentions of the entity, as returned by mentionArray()
+     * @param i The index of the first mention of the pair
+     * @param j The index of the second mention of the pair
+     */
+    public void visit(Mention[] mentions, int i, int j);
+  }
+
+  /**
+   * The mentions of this entity, as an array (in the order the entity iterates over them)
+   * @return A new array of the mentions
+   */
+  public Mention[] mentionArray(){
+    return mentions.toArray(new Mention[mentions.size()]);
+  }
+
+  /**
+   * Visit every pair of mentions referring to this entity. Unlike orderedMentionPairs(),
+   * this allocates nothing per pair: the mentions are copied into an array once, and the
+   * visitor is called with the indices of each pair in that array.
+   * @param ordered If true, every pair is visited in both orders, as (i,j) and (j,i);
+   *                otherwise each pair is visited once, with i &lt; j (or i == j)
+   * @param includeSelf If true, a mention is also paired with itself, as (i,i)
+   * @param visitor The visitor to call on each pair
+   * @return The array of mentions the pair indices refer to
+   */
+  public Mention[] forEachPair(boolean ordered, boolean includeSelf, PairVisitor visitor){
+    Mention[] array = mentionArray();
+    forEachPair(array, ordered, includeSelf, visitor);
+    return array;
+  }
+
+  /**
+   * Visit every pair of mentions in an array, as in forEachPair(boolean, boolean, PairVisitor).
+   * This lets a caller which needs the array before visiting (e.g., to precompute something
+   * for each mention) reuse the array it got from mentionArray().
+   * @param mentions The mentions to pair
+   * @param ordered If true, every pair is visited in both orders
+   * @param includeSelf If true, a mention is also paired with itself
+   * @param visitor The visitor to call on each pair
+   */
+  public static void forEachPair(Mention[] mentions, boolean ordered, boolean includeSelf, PairVisitor visitor){
+    int size = mentions.length;
+    for(int i=0; i<size; i++){
+      int start = ordered ? 0 : (includeSelf ? i : i + 1);
+      for(int j=start; j<size; j++){
+        if(i == j && !includeSelf){ continue; }
+        visitor.visit(mentions, i, j);
+      }
+    }
+  }
+
   public StringBuilder prettyPrint(StringBuilder b){
     for(Mention m : mentions){
       format(b,m).append(" ");
@@ -251,20 +318,29 @@ public class Entity implements Serializable, Decodable, Iterable<Mention> {
   //--------------
   // SERIALIZATION
   //--------------
+  private static final EncodeVerifier verifier = new EncodeVerifier();
+
   public String encode() {
+    return encode(indexMentions(mentionList));
+  }
+
+  /**
+   * Encode this entity, given a precomputed index of its mention list.
+   * When encoding many entities over the same mention list, this avoids
+   * rebuilding the index for every entity.
+   * @param indices The index of each mention in this entity's mention list,
+   *                as returned by indexMentions()
+   * @return The encoded entity
+   */
+  public String encode(Map<Mention,Integer> indices) {
     StringBuilder b = new StringBuilder();
-    //(create index map)
-    HashMap<Mention,Integer> indices = new HashMap<Mention,Integer>();
-    for(int i=0; i<mentionList.size(); i++) {
-      indices.put(mentionList.get(i), i);
-    }
     //(create string)
     for(Mention m : mentions){
       b.append(indices.get(m)).append(" ");
     }
     String encoded = b.substring(0,b.length()-1);
     //(error check)
-    if(!decode(encoded,this.mentionList).equals(this)){
+    if(verifier.shouldVerify() && !decode(encoded,this.mentionList).equals(this)){
       System.out.println();
       System.out.println("encoded: " + encoded);
       System.out.println("this:    " + this);
@@ -274,20 +350,50 @@ public class Entity implements Serializable, Decodable, Iterable<Mention> {
     return encoded;
   }
 
-  public static Entity decode(String encoded,List<Mention> mentionList){
-    //(create index map)
+  /**
+   * Index a list of mentions for encode(Map).
+   * As with a HashMap built in order, the last of a set of equal mentions wins.
+   * @param mentionList The list of all possible mentions
+   * @return A map from each mention to its index in the list
+   */
+  public static Map<Mention,Integer> indexMentions(List<Mention> mentionList){
     HashMap<Mention,Integer> indices = new HashMap<Mention,Integer>();
     for(int i=0; i<mentionList.size(); i++) {
       indices.put(mentionList.get(i), i);
     }
-    //(save indices)
-    String[] mentionStrings = encoded.split(" +");
-    List<Mention> mentions = new ArrayList<Mention>(mentionStrings.length);
-    for(int i=0; i<mentionStrings.length; i++){
-      if(!mentionStrings[i].trim().equals("")){
-        int index = Integer.parseInt(mentionStrings[i].trim());
-        mentions.add(mentionList.get(index));
+    return indices;
+  }
+
+  public static Entity decode(String encoded,List<Mention> mentionList){
+    return decode(encoded, 0, encoded.length(), mentionList);
+  }
+
+  /**
+   * Decode an entity, as written by encode(), from a range of characters
+   * (e.g., part of a line buffer), reading the mention indices in place.
+   * @param encoded The characters holding the encoded entity
+   * @param start The start of the entity in encoded, inclusive
+   * @param end The end of the entity in encoded, exclusive
+   * @param mentionList The list of all possible mentions
+   * @return The decoded entity
+   */
+  public static Entity decode(CharSequence encoded, int start, int end, List<Mention> mentionList){
+    List<Mention> mentions = new ArrayList<Mention>();
+    int pos = start;
+    while(pos < end){
+      //(skip whitespace)
+      if(encoded.charAt(pos) <= ' '){ pos += 1; continue; }
+      //(read index)
+      int index = 0;
+      while(pos < end && encoded.charAt(pos) > ' '){
+        char c = encoded.charAt(pos);
+        if(c < '0' || c > '9'){ throw new IllegalStateException("Could not decode Entity: " + encoded.subSequence(start, end)); }
+        int digit = c - '0';
+        if(index > (Integer.MAX_VALUE - digit) / 10){ throw new IllegalStateException("Could not decode Entity (overflow): " + encoded.subSequence(start, end)); }
+        index = 10 * index + digit;
+        pos += 1;
       }
+      mentions.add(mentionList.get(index));
     }
     return new Entity(mentionList,mentions);
   }
@@ -2,11 +2,10 @@ package cs224n.coref;
 
 import cs224n.ling.Tree;
 import cs224n.util.Decodable;
+import cs224n.util.EncodeVerifier;
 
 import java.io.Serializable;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  *  Denotes a mention. This class stores much of the useful information from which
@@ -44,10 +43,15 @@ public class Mention implements Serializable, Decodable {
   public final int headWordIndex;
 
   /**
-   * Marks the entity this mention is coreferent with
+   * Marks the entity this mention is coreferent with.
+   * This is not synchronized: it should only be set by the thread processing the mention's document.
    */
   public Entity corefferentWith = null;
 
+  //(the index of this mention in the list last set on its document, or -1; see Document.indexOfMention().
+  // Only a hint, checked before it is used; not serialized, so it is 0 in a deserialized mention)
+  transient int position = -1;
+
   /**
    * Create a new mention from the necessary parameters.
    * You should not have to use this method.
@@ -99,6 +103,18 @@ public class Mention implements Serializable, Decodable {
     return b.toString();
   }
 
+  /**
+   * The index of this mention's sentence in its document
+   * @return The sentence index
+   */
+  public int sentenceIndex(){ return doc.indexOfSentence(sentence); }
+
+  /**
+   * The index of this mention in its document's mentions
+   * @return The index of the mention in Document.getMentions()
+   */
+  public int index(){ return doc.indexOfMention(this); }
+
   /**
    * The length, in tokens, of this mention
    * @return the length of the mention
@@ -172,39 +188,83 @@ public class Mention implements Serializable, Decodable {
   //--------------
   // SERIALIZATION
   //--------------
-  private static final Pattern encodePattern = Pattern.compile(" *sid=([0-9]+) spanning ([0-9]+) until ([0-9]+) headed by ([0-9]+) parsed as (.*)$");
+  private static final EncodeVerifier verifier = new EncodeVerifier();
+
   public String encode() {
     //(find sentence)
-    int sentenceIndex = 0;
-    for(Sentence s : doc.sentences){
-      if(s == sentence){
-        break;
-      } else {
-        sentenceIndex += 1;
-      }
-    }
+    int sentenceIndex = doc.indexOfSentence(sentence);
     //(build structure)
     StringBuilder b = new StringBuilder();
     b.append("sid=").append(sentenceIndex).append(" spanning ")
         .append(beginIndexInclusive).append(" until " ).append(endIndexExclusive)
         .append(" headed by ").append(headWordIndex)
         .append(" parsed as ").append(parse.encode());
+    String encoded = b.toString();
     //(error check)
-    if(!decode(b.toString(),doc).equals(this)){
-      throw new IllegalStateException("Did not encode Mention properly: " + b.toString());
+    if(verifier.shouldVerify() && !decode(encoded,doc).equals(this)){
+      throw new IllegalStateException("Did not encode Mention properly: " + encoded);
     }
     //(return)
-     return b.toString();
+     return encoded;
   }
 
   public static Mention decode(String encoded, Document doc){
-    Matcher m = encodePattern.matcher(encoded);
-    if(!m.find()){ throw new IllegalStateException("Could not decode Mention: " + encoded); }
-    int sentenceIndex = Integer.parseInt(m.group(1));
-    int beginIndex = Integer.parseInt(m.group(2));
-    int endIndex = Integer.parseInt(m.group(3));
-    int head = Integer.parseInt(m.group(4));
-    Tree<String> subParse = Tree.decode(m.group(5));
-    return new Mention(doc, doc.sentences.get(sentenceIndex), beginIndex, endIndex, subParse, head);
+    return decode(encoded, doc, false);
+  }
+
+  /**
+   * Decode a mention, as written by encode(), reading its integer fields in place
+   * rather than through a regular expression.
+   * @param encoded The encoded mention (e.g., a line buffer)
+   * @param doc The document the mention is in
+   * @param shareParse If true, and the sentence's parse contains a subtree identical to
+   *                   the mention's parse fragment, use that subtree rather than decoding a copy.
+   *                   The fragment is then shared with the sentence, and should not be modified.
+   * @return The decoded mention
+   */
+  public static Mention decode(CharSequence encoded, Document doc, boolean shareParse){
+    //--Read Fields
+    int[] pos = new int[]{ 0 };
+    while(pos[0] < encoded.length() && encoded.charAt(pos[0]) == ' '){ pos[0] += 1; }
+    expect(encoded, pos, "sid=");
+    int sentenceIndex = readInt(encoded, pos);
+    expect(encoded, pos, " spanning ");
+    int beginIndex = readInt(encoded, pos);
+    expect(encoded, pos, " until ");
+    int endIndex = readInt(encoded, pos);
+    expect(encoded, pos, " headed by ");
+    int head = readInt(encoded, pos);
+    expect(encoded, pos, " parsed as ");
+    //--Get Parse
+    Sentence sentence = doc.sentences.get(sentenceIndex);
+    Tree<String> subParse = null;
+    if(shareParse){
+      subParse = sentence.parse.findSubtree(beginIndex, encoded, pos[0], encoded.length());
+    }
+    if(subParse == null){
+      subParse = Tree.decode(encoded.subSequence(pos[0], encoded.length()).toString());
+    }
+    return new Mention(doc, sentence, beginIndex, endIndex, subParse, head);
+  }
+
+  private static void expect(CharSequence encoded, int[] pos, String literal){
+    if(pos[0] + literal.length() > encoded.length()){ throw new IllegalStateException("Could not decode Mention: " + encoded); }
+    for(int i=0; i<literal.length(); i++){
+      if(encoded.charAt(pos[0]+i) != literal.charAt(i)){ throw new IllegalStateException("Could not decode Mention: " + encoded); }
+    }
+    pos[0] += literal.length();
+  }
+
+  private static int readInt(CharSequence encoded, int[] pos){
+    int start = pos[0];
+    int value = 0;
+    while(pos[0] < encoded.length() && encoded.charAt(pos[0]) >= '0' && encoded.charAt(pos[0]) <= '9'){
+      int digit = encoded.charAt(pos[0]) - '0';
+      if(value > (Integer.MAX_VALUE - digit) / 10){ throw new IllegalStateException("Could not decode Mention (overflow): " + encoded); }
+      value = 10 * value + digit;
+      pos[0] += 1;
+    }
+    if(pos[0] == start){ throw new IllegalStateException("Could not decode Mention: " + encoded); }
+    return value;
   }
 }
@@ -0,0 +1,103 @@
+package cs224n.coref;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Facts about every mention of a document which coreference systems use over and over
+ * (e.g., inside a loop over pairs of mentions), computed once and stored as parallel arrays.
+ * The i'th entry of each array describes the i'th mention of the list the attributes were
+ * computed for (usually Document.getMentions(); see Document.attributes()).
+ *
+ * Strings (head words and glosses) are stored as ids, numbered per document, so that two
+ * mentions can be compared by comparing ints; string() gets the String back.
+ */
+public class MentionAttributes {
+
+  /** The mentions these attributes describe */
+  public final List<Mention> mentions;
+  /** The head word of each mention, case folded (two heads have the same id iff they are equalsIgnoreCase) */
+  public final int[] lowerHead;
+  /** The gloss of each mention, lower cased */
+  public final int[] lowerGloss;
+  /** The pronoun the head word of each mention is, or null (as Pronoun.valueOrNull(headWord())) */
+  public final Pronoun[] pronoun;
+  /** The index of each mention's sentence in the document */
+  public final int[] sentence;
+  /** Whether each mention's head word is quoted */
+  public final boolean[] quoted;
+  //(the strings of this document's string attributes, by id)
+  private final List<String> strings = new ArrayList<String>();
+
+  private MentionAttributes(List<Mention> mentions){
+    int size = mentions.size();
+    this.mentions = mentions;
+    this.lowerHead = new int[size];
+    this.lowerGloss = new int[size];
+    this.pronoun = new Pronoun[size];
+    this.sentence = new int[size];
+    this.quoted = new boolean[size];
+  }
+
+  /**
+   * Compute the attributes of a list of mentions
+   * @param mentions The mentions, all of the same document
+   * @return The attributes of the mentions
+   */
+  public static MentionAttributes compute(List<Mention> mentions){
+    MentionAttributes attributes = new MentionAttributes(mentions);
+    Map<String,Integer> ids = new HashMap<String,Integer>();
+    for(int i=0; i<mentions.size(); i++){
+      attributes.fill(i, mentions.get(i), ids);
+    }
+    return attributes;
+  }
+
+  private void fill(int i, Mention m, Map<String,Integer> ids){
+    //--Strings
+    String headWord = m.headWord();
+    lowerHead[i] = id(foldCase(headWord), ids);
+    lowerGloss[i] = id(m.gloss().toLowerCase(), ids);
+    //--Token Facts
+    pronoun[i] = Pronoun.valueOrNull(headWord);
+    sentence[i] = m.sentenceIndex();
+    quoted[i] = m.headToken().isQuoted();
+  }
+
+  private int id(String str, Map<String,Integer> ids){
+    Integer id = ids.get(str);
+    if(id == null){
+      id = strings.size();
+      ids.put(str, id);
+      strings.add(str);
+    }
+    return id;
+  }
+
+  /**
+   * Fold the case of a string one character at a time, as String.equalsIgnoreCase() compares
+   * characters, so that two strings fold to the same string iff they are equalsIgnoreCase.
+   * Unlike String.toLowerCase(), this does not depend on the default locale.
+   */
+  private static String foldCase(String str){
+    char[] chars = new char[str.length()];
+    for(int k=0; k<chars.length; k++){
+      chars[k] = Character.toLowerCase(Character.toUpperCase(str.charAt(k)));
+    }
+    return new String(chars);
+  }
+
+  /**
+   * @return The number of mentions described
+   */
+  public int size(){ return lowerHead.length; }
+
+  /**
+   * The String with an id from one of the string attributes (e.g., lowerHead)
+   * @param id The id
+   * @return The String
+   */
+  public String string(int id){ return strings.get(id); }
+}
@@ -0,0 +1,118 @@
+package cs224n.coref;
+
+import java.util.List;
+
+/**
+ * A clustering of the mentions of a document, kept as a disjoint-set (union-find) forest
+ * over the mentions' indices in a list of mentions (usually Document.getMentions()).
+ * Every mention starts in its own cluster; merge() joins two clusters, and
+ * same() tells whether two mentions are in the same cluster, both in near constant time
+ * (with path compression and union by rank).
+ *
+ * Unlike a map from mentions to Entity objects, no Entity is created or compared while
+ * the clustering is built; toAssignment() gives the clusters as a ClusterAssignment,
+ * and toClusteredMentions() creates the entities once, at the end.
+ */
+public class MentionClusters {
+
+  /** The mentions being clustered */
+  public final List<Mention> mentions;
+  private final int[] parent;
+  private final byte[] rank;
+  private int clusterCount;
+
+  /**
+   * Create a clustering in which every mention is a singleton
+   * @param mentions The mentions to cluster
+   */
+  public MentionClusters(List<Mention> mentions){
+    this.mentions = mentions;
+    this.parent = new int[mentions.size()];
+    this.rank = new byte[mentions.size()];
+    for(int i=0; i<parent.length; i++){
+      parent[i] = i;
+    }
+    this.clusterCount = parent.length;
+  }
+
+  /**
+   * The representative of the cluster of a mention. Two mentions are in the same
+   * cluster if and only if they have the same representative; the representative
+   * of a cluster may change when it is merged.
+   * @param i The index of the mention
+   * @return The index of the representative mention of its cluster
+   */
+  public int find(int i){
+    int root = i;
+    while(parent[root] != root){ root = parent[root]; }
+    //(compress path)
+    while(parent[i] != root){
+      int next = parent[i];
+      parent[i] = root;
+      i = next;
+    }
+    return root;
+  }
+
+  /**
+   * @param i The index of a mention
+   * @param j The index of another mention
+   * @return True if the two mentions are in the same cluster
+   */
+  public boolean same(int i, int j){
+    return find(i) == find(j);
+  }
+
+  /**
+   * Merge the clusters of two mentions
+   * @param i The index of a mention
+   * @param j The index of another mention
+   * @return True if the clusters were merged; false if the mentions were already in the same cluster
+   */
+  public boolean merge(int i, int j){
+    int rootI = find(i);
+    int rootJ = find(j);
+    if(rootI == rootJ){ return false; }
+    if(rank[rootI] < rank[rootJ]){
+      parent[rootI] = rootJ;
+    } else if(rank[rootI] > rank[rootJ]){
+      parent[rootJ] = rootI;
+    } else {
+      parent[rootJ] = rootI;
+      rank[rootI] += 1;
+    }
+    clusterCount -= 1;
+    return true;
+  }
+
+  /**
+   * @return The number of mentions being clustered
+   */
+  public int size(){ return parent.length; }
+
+  /**
+   * @return The number of clusters
+   */
+  public int clusterCount(){ return clusterCount; }
+
+  /**
+   * The clustering as a flat cluster assignment
+   * @return The cluster of every mention
+   */
+  public ClusterAssignment toAssignment(){
+    int[] clusters = new int[parent.length];
+    for(int i=0; i<parent.length; i++){
+      clusters[i] = find(i);
+    }
+    return new ClusterAssignment(mentions, clusters);
+  }
+
+  /**
+   * Create an Entity for every cluster, and mark each mention as coreferent with
+   * the entity of its cluster (see ClusterAssignment.toClusteredMentions()).
+   * @return A clustered mention for every mention, in the order of the mentions
+   */
+  public List<ClusteredMention> toClusteredMentions(){
+    return toAssignment().toClusteredMentions();
+  }
+}
@@ -0,0 +1,48 @@
+package cs224n.coref;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The named entity tags of OntoNotes, along with those of the Stanford NER
+ * (e.g., ORGANIZATION, MISC), so that a tag can be stored and compared as a small constant
+ * rather than as a String. O marks a token outside of any named entity.
+ * Tags which are not in this enumeration are still allowed in a Sentence; forTag() returns null for them.
+ */
+public enum NerTag {
+  O,
+  //(OntoNotes)
+  PERSON, NORP, FAC, ORG, GPE, LOC, PRODUCT, EVENT, WORK_OF_ART, LAW, LANGUAGE,
+  DATE, TIME, PERCENT, MONEY, QUANTITY, ORDINAL, CARDINAL,
+  //(Stanford NER)
+  LOCATION, ORGANIZATION, MISC, NUMBER, DURATION, SET;
+
+  /** The tag, as it appears in the data */
+  public final String tag;
+
+  private NerTag(){
+    this.tag = name();
+  }
+
+  /** Whether this tag marks part of a named entity (i.e., is not O) */
+  public boolean isEntity(){
+    return this != O;
+  }
+
+  private static final Map<String,NerTag> byTag = new HashMap<String,NerTag>();
+  static {
+    for(NerTag t : values()){ byTag.put(t.tag, t); }
+  }
+
+  /**
+   * The constant for a tag, as it appears in the data
+   * @param tag The tag, e.g. "PERSON"
+   * @return The tag's constant, or null if it is not a known tag
+   */
+  public static NerTag forTag(String tag){
+    return byTag.get(tag);
+  }
+
+  @Override
+  public String toString(){ return tag; }
+}
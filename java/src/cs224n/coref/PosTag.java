@@ -0,0 +1,100 @@
+package cs224n.coref;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The part of speech tags of the Penn Treebank (as used in OntoNotes), so that a
+ * tag can be stored and compared as a small constant rather than as a String.
+ * The tag as it appears in the data is given by the tag field (e.g., PRP_POSS is "PRP$").
+ * Tags which are not in this enumeration are still allowed in a Sentence; forTag() returns null for them.
+ */
+public enum PosTag {
+  CC, CD, DT, EX, FW, IN, JJ, JJR, JJS, LS, MD,
+  NN, NNS, NNP, NNPS,
+  PDT, POS, PRP, PRP_POSS("PRP$"), RB, RBR, RBS, RP, SYM, TO, UH,
+  VB, VBD, VBG, VBN, VBP, VBZ, WDT, WP, WP_POSS("WP$"), WRB,
+  //(punctuation)
+  COMMA(","), PERIOD("."), COLON(":"), HASH("#"), DOLLAR("$"), OPEN_QUOTE("``"), CLOSE_QUOTE("''"),
+  LRB("-LRB-"), RRB("-RRB-"),
+  //(OntoNotes additions)
+  HYPH, NFP, ADD, AFX, GW, XX, NONE("-NONE-");
+
+  /** The tag, as it appears in the data */
+  public final String tag;
+
+  private PosTag(){
+    this.tag = name();
+  }
+
+  private PosTag(String tag){
+    this.tag = tag;
+  }
+
+  /** Whether this is a noun tag (NN, NNS, NNP or NNPS) */
+  public boolean isNoun(){
+    return this == NN || this == NNS || this == NNP || this == NNPS;
+  }
+
+  /** Whether this is a plural noun tag (NNS or NNPS) */
+  public boolean isPluralNoun(){
+    return this == NNS || this == NNPS;
+  }
+
+  /** Whether this is a proper noun tag (NNP or NNPS) */
+  public boolean isProperNoun(){
+    return this == NNP || this == NNPS;
+  }
+
+  /** Whether this is a pronoun tag (PRP, PRP$, WP or WP$) */
+  public boolean isPronoun(){
+    return this == PRP || this == PRP_POSS || this == WP || this == WP_POSS;
+  }
+
+  /** Whether this is a possessive tag (PRP$, WP$ or POS) */
+  public boolean isPossessive(){
+    return this == PRP_POSS || this == WP_POSS || this == POS;
+  }
+
+  /** Whether this is a verb tag (VB*, or MD) */
+  public boolean isVerb(){
+    return this == VB || this == VBD || this == VBG || this == VBN || this == VBP || this == VBZ || this == MD;
+  }
+
+  /** Whether this is a determiner tag (DT, PDT or WDT) */
+  public boolean isDeterminer(){
+    return this == DT || this == PDT || this == WDT;
+  }
+
+  /** Whether this is an adjective tag (JJ, JJR or JJS) */
+  public boolean isAdjective(){
+    return this == JJ || this == JJR || this == JJS;
+  }
+
+  /** Whether this is an adverb tag (RB, RBR, RBS or WRB) */
+  public boolean isAdverb(){
+    return this == RB || this == RBR || this == RBS || this == WRB;
+  }
+
+  /** Whether this is a punctuation tag */
+  public boolean isPunctuation(){
+    return ordinal() >= COMMA.ordinal() && ordinal() <= RRB.ordinal() || this == HYPH || this == NFP;
+  }
+
+  private static final Map<String,PosTag> byTag = new HashMap<String,PosTag>();
+  static {
+    for(PosTag t : values()){ byTag.put(t.tag, t); }
+  }
+
+  /**
+   * The constant for a tag, as it appears in the data
+   * @param tag The tag, e.g. "NNP" or "PRP$"
+   * @return The tag's constant, or null if it is not a known tag
+   */
+  public static PosTag forTag(String tag){
+    return byTag.get(tag);
+  }
+
+  @Override
+  public String toString(){ return tag; }
+}
@@ -3,7 +3,11 @@ package cs224n.coref;
 import cs224n.ling.Tree;
 import cs224n.util.Decodable;
 import cs224n.util.Pair;
+import cs224n.util.Vocabulary;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.*;
 
@@ -19,8 +23,12 @@ public class Sentence implements Serializable, Decodable {
   /**
    * A token of the sentence, encapsulating useful information
    * about a particular index in the sentence.
+   * Tokens are lightweight views, created as they are requested; two tokens are
+   * equal if they are at the same index of the same sentence.
    */
   public class Token implements Serializable{
+    //(the implicit id of the original class; serialized sentences hold a list of Tokens)
+    private static final long serialVersionUID = 4824677797921835288L;
     private int index;
     private Token(int index){
       this.index = index;
@@ -44,12 +52,32 @@ public class Sentence implements Serializable, Decodable {
      */
     public String posTag(){ return posTags.get(index); }
 
+    /**
+     * The part of speech tag of the token, as a constant
+     * @return The POS tag, or null if it is not a known tag
+     */
+    public PosTag pos(){
+      if(posCodes == null){ return PosTag.forTag(posTag()); }
+      int code = posCodes[index];
+      return code >= 0 ? POS_TAGS[code] : null;
+    }
+
     /**
      * The Named Entity of the token
      * @return The NER tag, as a String
      */
     public String nerTag(){ return nerTags.get(index); }
 
+    /**
+     * The Named Entity of the token, as a constant
+     * @return The NER tag, or null if it is not a known tag
+     */
+    public NerTag ner(){
+      if(nerCodes == null){ return NerTag.forTag(nerTag()); }
+      int code = nerCodes[index];
+      return code >= 0 ? NER_TAGS[code] : null;
+    }
+
     /**
      * The speaker of this token (for example, whether it is in quotes)
      * @return The speaker, as a String
@@ -62,7 +90,16 @@ public class Sentence implements Serializable, Decodable {
      * @return True if this token is inside quotes
      */
     public boolean isQuoted(){
-      return !speaker().equals("") && !speaker().equals("PER0");
+      return is(Category.QUOTED);
+    }
+
+    /**
+     * Whether this token falls into a category (see Sentence.Category)
+     * @param category The category to check
+     * @return True if the token is in the category
+     */
+    public boolean is(Category category){
+      return Sentence.this.is(index, category);
     }
 
     /**
@@ -70,7 +107,7 @@ public class Sentence implements Serializable, Decodable {
      * @return true if the token is a noun, and it is a plural noun
      */
     public boolean isPluralNoun(){
-      return isNoun() && (posTag().equals("NNS") || posTag().equals("NNPS"));
+      return is(Category.PLURAL_NOUN);
     }
 
     /**
@@ -78,7 +115,7 @@ public class Sentence implements Serializable, Decodable {
      * @return true if the token is a noun, and it is a proper noun
      */
     public boolean isProperNoun(){
-      return isNoun() && (posTag().equals("NNP") || posTag().equals("NNPS"));
+      return is(Category.PROPER_NOUN);
     }
 
     /**
@@ -86,8 +123,19 @@ public class Sentence implements Serializable, Decodable {
      * @return true if the token is a noun
      */
     public boolean isNoun(){
-      String tag = posTag();
-      return tag.equals("NN") || tag.equals("NNS") || tag.equals("NNP") || tag.equals("NNPS");
+      return is(Category.NOUN);
+    }
+
+    private Sentence sentence(){ return Sentence.this; }
+
+    @Override
+    public boolean equals(Object o){
+      return o instanceof Token && ((Token) o).sentence() == Sentence.this && ((Token) o).index == index;
+    }
+
+    @Override
+    public int hashCode(){
+      return 31 * System.identityHashCode(Sentence.this) + index;
     }
   }
 
@@ -121,6 +169,44 @@ public class Sentence implements Serializable, Decodable {
    */
   public final List<Token> tokens;
 
+  //(the index of this sentence in its document, or -1 if not yet known; see Document.indexOfSentence().
+  // Only a hint, checked before it is used; not serialized, so it is 0 in a deserialized sentence)
+  transient int position = -1;
+
+  /**
+   * Coarse categories of tokens, computed once for every sentence from its POS tags,
+   * NER tags and speakers. A token may be in several categories (e.g., NOUN and PROPER_NOUN).
+   */
+  public static enum Category {
+    NOUN, PROPER_NOUN, PLURAL_NOUN, PRONOUN, POSSESSIVE, VERB, DETERMINER, ADJECTIVE, ADVERB,
+    NUMBER, PUNCTUATION, NAMED_ENTITY, QUOTED
+  }
+
+  private static final Category[] CATEGORIES = Category.values();
+  //(a bitset over the tokens for each category, one after the other, each (length+63)/64 longs long;
+  // recomputed when deserialized)
+  private transient long[] categoryBits;
+
+  /**
+   * If true, decode() creates compact sentences (see compact()). This is off by default:
+   * the columns of a compact sentence are read-only views, and its strings stay in the
+   * shared vocabulary for as long as the JVM runs.
+   */
+  public static boolean compactDecoding = false;
+
+  //--Compact Storage
+  //(the strings of all compact sentences, shared across the corpus)
+  private static final Vocabulary vocabulary = new Vocabulary();
+  private static final PosTag[] POS_TAGS = PosTag.values();
+  private static final NerTag[] NER_TAGS = NerTag.values();
+  //(the columns of a compact sentence, as ids in the vocabulary; tags are stored as the
+  // ordinal of their constant, or as -1-id if they are not a known tag. All null if not compact.)
+  private final int[] wordIds;
+  private final int[] lemmaIds;
+  private final int[] posCodes;
+  private final int[] nerCodes;
+  private final int[] speakerIds;
+
   public Sentence(List<String> words,
                   List<String> lemmas,
                   List<String> posTags,
@@ -128,11 +214,7 @@ public class Sentence implements Serializable, Decodable {
                   List<String> speakers,
                   Tree<String> parse){
     //--Error Checks
-    int length = words.size();
-    if(lemmas.size() != length){ throw new IllegalArgumentException("Lemma size doesn't agree: " + lemmas.size()); }
-    if(posTags.size() != length){ throw new IllegalArgumentException("POS tags size doesn't agree: " + posTags.size()); }
-    if(namedEntities.size() != length){ throw new IllegalArgumentException("NER size doesn't agree: " + namedEntities.size()); }
-    if(speakers.size() != length){ throw new IllegalArgumentException("Speakers size doesn't agree: " + speakers.size()); }
+    checkLengths(words, lemmas, posTags, namedEntities, speakers);
     //--Copy Variables
     this.words = words;
     this.lemmas = lemmas;
@@ -140,13 +222,227 @@ public class Sentence implements Serializable, Decodable {
     this.nerTags = namedEntities;
     this.speakersOfWord = speakers;
     this.parse = parse;
+    this.wordIds = null;
+    this.lemmaIds = null;
+    this.posCodes = null;
+    this.nerCodes = null;
+    this.speakerIds = null;
     //--Create Tokens
-    this.tokens = new ArrayList<Token>();
-    for(int i=0; i<words.size(); i++){
-      tokens.add(new Token(i));
+    this.tokens = new Tokens();
+    this.categoryBits = computeCategories();
+  }
+
+  private Sentence(int[] wordIds, int[] lemmaIds, int[] posCodes, int[] nerCodes, int[] speakerIds, Tree<String> parse){
+    this.wordIds = wordIds;
+    this.lemmaIds = lemmaIds;
+    this.posCodes = posCodes;
+    this.nerCodes = nerCodes;
+    this.speakerIds = speakerIds;
+    this.words = new Column(wordIds, null);
+    this.lemmas = new Column(lemmaIds, null);
+    this.posTags = new Column(posCodes, POS_TAGS);
+    this.nerTags = new Column(nerCodes, NER_TAGS);
+    this.speakersOfWord = new Column(speakerIds, null);
+    this.parse = parse;
+    this.tokens = new Tokens();
+    this.categoryBits = computeCategories();
+  }
+
+  /**
+   * Create a compact sentence: rather than holding a list of Strings per column, the
+   * sentence stores an array of ids into a vocabulary shared by every compact sentence,
+   * with POS and NER tags stored as PosTag and NerTag constants where possible.
+   * The columns (words, lemmas, etc.) are views which look the Strings up again,
+   * and behave exactly as they would in a sentence created through the constructor.
+   * @return A sentence with the given columns
+   */
+  public static Sentence compact(List<String> words,
+                                 List<String> lemmas,
+                                 List<String> posTags,
+                                 List<String> namedEntities,
+                                 List<String> speakers,
+                                 Tree<String> parse){
+    checkLengths(words, lemmas, posTags, namedEntities, speakers);
+    int length = words.size();
+    int[] wordIds = new int[length];
+    int[] lemmaIds = new int[length];
+    int[] posCodes = new int[length];
+    int[] nerCodes = new int[length];
+    int[] speakerIds = new int[length];
+    for(int i=0; i<length; i++){
+      wordIds[i] = vocabulary.id(words.get(i));
+      lemmaIds[i] = vocabulary.id(lemmas.get(i));
+      PosTag pos = PosTag.forTag(posTags.get(i));
+      posCodes[i] = pos != null ? pos.ordinal() : -1 - vocabulary.id(posTags.get(i));
+      NerTag ner = NerTag.forTag(namedEntities.get(i));
+      nerCodes[i] = ner != null ? ner.ordinal() : -1 - vocabulary.id(namedEntities.get(i));
+      speakerIds[i] = vocabulary.id(speakers.get(i));
+    }
+    return new Sentence(wordIds, lemmaIds, posCodes, nerCodes, speakerIds, parse);
+  }
+
+  private static void checkLengths(List<String> words, List<String> lemmas, List<String> posTags, List<String> namedEntities, List<String> speakers){
+    int length = words.size();
+    if(lemmas.size() != length){ throw new IllegalArgumentException("Lemma size doesn't agree: " + lemmas.size()); }
+    if(posTags.size() != length){ throw new IllegalArgumentException("POS tags size doesn't agree: " + posTags.size()); }
+    if(namedEntities.size() != length){ throw new IllegalArgumentException("NER size doesn't agree: " + namedEntities.size()); }
+    if(speakers.size() != length){ throw new IllegalArgumentException("Speakers size doesn't agree: " + speakers.size()); }
+  }
+
+  private long[] computeCategories(){
+    int length = words.size();
+    int stride = (length + 63) >>> 6;
+    long[] bits = new long[CATEGORIES.length * stride];
+    for(int i=0; i<length; i++){
+      //(get tags)
+      PosTag pos;
+      NerTag ner;
+      if(posCodes != null){
+        pos = posCodes[i] >= 0 ? POS_TAGS[posCodes[i]] : null;
+        ner = nerCodes[i] >= 0 ? NER_TAGS[nerCodes[i]] : null;
+      } else {
+        pos = PosTag.forTag(posTags.get(i));
+        ner = NerTag.forTag(nerTags.get(i));
+      }
+      String speaker = speakersOfWord.get(i);
+      //(set bits)
+      int word = i >>> 6;
+      long bit = 1L << i;
+      if(pos != null){
+        if(pos.isNoun()){ bits[Category.NOUN.ordinal() * stride + word] |= bit; }
+        if(pos.isProperNoun()){ bits[Category.PROPER_NOUN.ordinal() * stride + word] |= bit; }
+        if(pos.isPluralNoun()){ bits[Category.PLURAL_NOUN.ordinal() * stride + word] |= bit; }
+        if(pos.isPronoun()){ bits[Category.PRONOUN.ordinal() * stride + word] |= bit; }
+        if(pos.isPossessive()){ bits[Category.POSSESSIVE.ordinal() * stride + word] |= bit; }
+        if(pos.isVerb()){ bits[Category.VERB.ordinal() * stride + word] |= bit; }
+        if(pos.isDeterminer()){ bits[Category.DETERMINER.ordinal() * stride + word] |= bit; }
+        if(pos.isAdjective()){ bits[Category.ADJECTIVE.ordinal() * stride + word] |= bit; }
+        if(pos.isAdverb()){ bits[Category.ADVERB.ordinal() * stride + word] |= bit; }
+        if(pos == PosTag.CD){ bits[Category.NUMBER.ordinal() * stride + word] |= bit; }
+        if(pos.isPunctuation()){ bits[Category.PUNCTUATION.ordinal() * stride + word] |= bit; }
+      }
+      if(ner == null ? nerTags.get(i).length() > 0 : ner.isEntity()){ bits[Category.NAMED_ENTITY.ordinal() * stride + word] |= bit; }
+      if(!speaker.equals("") && !speaker.equals("PER0")){ bits[Category.QUOTED.ordinal() * stride + word] |= bit; }
+    }
+    return bits;
+  }
+
+  /**
+   * Whether a token of this sentence falls into a category
+   * @param index The index of the token
+   * @param category The category to check
+   * @return True if the token is in the category
+   */
+  public boolean is(int index, Category category){
+    if(index < 0 || index >= words.size()){ throw new IndexOutOfBoundsException("" + index); }
+    int stride = (words.size() + 63) >>> 6;
+    return (categoryBits[category.ordinal() * stride + (index >>> 6)] & (1L << index)) != 0;
+  }
+
+  /**
+   * The first token at or after an index which is in a category, scanning the
+   * precomputed bitset a word (64 tokens) at a time
+   * @param category The category to look for
+   * @param fromIndex The index to start from
+   * @return The index of the token, or -1 if there is none
+   */
+  public int nextTokenWith(Category category, int fromIndex){
+    int length = words.size();
+    if(fromIndex < 0){ fromIndex = 0; }
+    if(fromIndex >= length){ return -1; }
+    int stride = (length + 63) >>> 6;
+    int base = category.ordinal() * stride;
+    int word = fromIndex >>> 6;
+    long bits = categoryBits[base + word] & (-1L << fromIndex);
+    while(true){
+      if(bits != 0){ return (word << 6) + Long.numberOfTrailingZeros(bits); }
+      word += 1;
+      if(word >= stride){ return -1; }
+      bits = categoryBits[base + word];
     }
   }
 
+  /**
+   * The tokens of this sentence in a category
+   * @param category The category to look for
+   * @return A new bitset, with a bit set for every token in the category
+   */
+  public BitSet tokensWith(Category category){
+    BitSet set = new BitSet(words.size());
+    for(int i = nextTokenWith(category, 0); i >= 0; i = nextTokenWith(category, i + 1)){
+      set.set(i);
+    }
+    return set;
+  }
+
+  /**
+   * The number of tokens of this sentence in a category
+   * @param category The category to count
+   * @return The number of tokens in the category
+   */
+  public int countTokensWith(Category category){
+    int stride = (words.size() + 63) >>> 6;
+    int count = 0;
+    for(int w=0; w<stride; w++){ count += Long.bitCount(categoryBits[category.ordinal() * stride + w]); }
+    return count;
+  }
+
+  /**
+   * Whether this sentence is compact (see compact())
+   * @return True if the sentence's columns are stored as vocabulary ids
+   */
+  public boolean isCompact(){ return wordIds != null; }
+
+  /**
+   * The number of distinct strings held by compact sentences
+   * @return The size of the shared vocabulary
+   */
+  public static int vocabularySize(){ return vocabulary.size(); }
+
+  /** A column of a compact sentence */
+  private static class Column extends AbstractList<String> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+    private final int[] codes;
+    private final Enum<?>[] tags;
+    private Column(int[] codes, Enum<?>[] tags){
+      this.codes = codes;
+      this.tags = tags;
+    }
+    public String get(int i) {
+      int code = codes[i];
+      if(tags == null){ return vocabulary.get(code); }
+      return code >= 0 ? tags[code].toString() : vocabulary.get(-1 - code);
+    }
+    public int size() { return codes.length; }
+    //(vocabulary ids are only meaningful within this JVM)
+    private Object writeReplace() throws ObjectStreamException { return new ArrayList<String>(this); }
+  }
+
+  /** The tokens of the sentence, created as they are requested */
+  private class Tokens extends AbstractList<Token> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+    public Token get(int i) {
+      if(i < 0 || i >= words.size()){ throw new IndexOutOfBoundsException("" + i); }
+      return new Token(i);
+    }
+    public int size() { return words.size(); }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.categoryBits = computeCategories();
+  }
+
+  /**
+   * A compact sentence is serialized as an ordinary one, since vocabulary ids are
+   * only meaningful within this JVM
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    if(!isCompact()){ return this; }
+    return new Sentence(new ArrayList<String>(words), new ArrayList<String>(lemmas), new ArrayList<String>(posTags),
+        new ArrayList<String>(nerTags), new ArrayList<String>(speakersOfWord), parse);
+  }
+
   /**
    * The length of the sentence
    * @return The length of the sentence
@@ -279,7 +575,8 @@ public class Sentence implements Serializable, Decodable {
   //--------------
   // SERIALIZATION
   //--------------
-  private static final String DIV = "" + (char) 0x04;
+  private static final char DIV_CHAR = (char) 0x04;
+  private static final String DIV = "" + DIV_CHAR;
 
   public String encode() {
     //--Variables
@@ -306,30 +603,62 @@ public class Sentence implements Serializable, Decodable {
   }
 
   public static Sentence decode(String encoded) {
+    return decode((CharSequence) encoded);
+  }
+
+  /**
+   * Decode a sentence, as written by encode(), directly from a sequence of characters
+   * (e.g., a line buffer), without splitting it into an array of terms first.
+   * @param encoded The encoded sentence
+   * @return The decoded sentence
+   */
+  public static Sentence decode(CharSequence encoded) {
     //--Get Terms
-    String[] terms = encoded.trim().split(DIV);
-    if(terms.length % 5 != 1 || terms.length == 0){
-      throw new IllegalStateException("Cannot decode sentence ("+terms.length+"): " + encoded);
+    //(trim, as String.trim() would)
+    int start = 0;
+    int end = encoded.length();
+    while(start < end && encoded.charAt(start) <= ' '){ start += 1; }
+    while(end > start && encoded.charAt(end-1) <= ' '){ end -= 1; }
+    //(count terms)
+    int numTerms = 1;
+    for(int i=start; i<end; i++){
+      if(encoded.charAt(i) == DIV_CHAR){ numTerms += 1; }
+    }
+    if(numTerms % 5 != 1){
+      throw new IllegalStateException("Cannot decode sentence ("+numTerms+"): " + encoded);
     }
     //--Parse Terms
     //(variables)
-    List<String> words = new ArrayList<String>(terms.length/5);
-    List<String> lemmas = new ArrayList<String>(terms.length/5);
-    List<String> posTags = new ArrayList<String>(terms.length/5);
-    List<String> nerTags = new ArrayList<String>(terms.length/5);
-    List<String> speakersOfWord = new ArrayList<String>(terms.length/5);
+    List<String> words = new ArrayList<String>(numTerms/5);
+    List<String> lemmas = new ArrayList<String>(numTerms/5);
+    List<String> posTags = new ArrayList<String>(numTerms/5);
+    List<String> nerTags = new ArrayList<String>(numTerms/5);
+    List<String> speakersOfWord = new ArrayList<String>(numTerms/5);
     //(words)
-    for(int i=0; i<terms.length/5; i++){
-      words.add(terms[5*i+0].trim());
-      lemmas.add(terms[5*i+1].trim());
-      posTags.add(terms[5*i+2].trim());
-      nerTags.add(terms[5 * i + 3].trim());
-      speakersOfWord.add(terms[5 * i + 4].trim());
-
+    int termStart = start;
+    for(int i=0; i<numTerms-1; i++){
+      int termEnd = termStart;
+      while(encoded.charAt(termEnd) != DIV_CHAR){ termEnd += 1; }
+      String term = trimmedTerm(encoded, termStart, termEnd);
+      switch(i % 5){
+        case 0: words.add(term); break;
+        case 1: lemmas.add(term); break;
+        case 2: posTags.add(term); break;
+        case 3: nerTags.add(term); break;
+        default: speakersOfWord.add(term); break;
+      }
+      termStart = termEnd + 1;
     }
     //(parse)
-    Tree<String> parse = Tree.decode(terms[terms.length-1]);
+    Tree<String> parse = Tree.decode(encoded.subSequence(termStart, end).toString());
     //--Return
+    if(compactDecoding){ return compact(words,lemmas,posTags,nerTags,speakersOfWord,parse); }
     return new Sentence(words,lemmas,posTags,nerTags,speakersOfWord,parse);
   }
+
+  private static String trimmedTerm(CharSequence encoded, int start, int end){
+    while(start < end && encoded.charAt(start) <= ' '){ start += 1; }
+    while(end > start && encoded.charAt(end-1) <= ' '){ end -= 1; }
+    return encoded.subSequence(start, end).toString();
+  }
 }
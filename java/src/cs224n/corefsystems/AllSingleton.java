@@ -10,7 +10,7 @@ import cs224n.coref.Entity;
 import cs224n.coref.Mention;
 import cs224n.util.Pair;
 
-public class AllSingleton implements CoreferenceSystem {
+public class AllSingleton implements ConcurrentCoreferenceSystem {
 
 	@Override
 	public void train(Collection<Pair<Document, List<Entity>>> trainingData) {
@@ -13,7 +13,7 @@ import java.util.Set;
 import cs224n.coref.*;
 import cs224n.util.Pair;
 
-public class BetterBaseline implements CoreferenceSystem {
+public class BetterBaseline implements ConcurrentCoreferenceSystem {
 	private HashMap<String,Set<String>> coOccuringMentions = new HashMap<String,Set<String>>();
 	
 	
@@ -26,15 +26,17 @@ public class BetterBaseline implements CoreferenceSystem {
 	}
 	
 	private void generateAndMarkPairs(Entity e){
-		Set<Mention> mentions = e.mentions;
-		for(Mention m1 : mentions){
-			for(Mention m2 : mentions){
-				String headWord1 = m1.headWord().toLowerCase();
-				String headWord2 = m2.headWord().toLowerCase();
-				addString(headWord1,headWord2);
-				addString(headWord2,headWord1);
-			}
+		Mention[] mentions = e.mentionArray();
+		final String[] headWords = new String[mentions.length];
+		for(int i=0; i<mentions.length; i++){
+			headWords[i] = mentions[i].headWord().toLowerCase();
 		}
+		Entity.forEachPair(mentions, true, true, new Entity.PairVisitor(){
+			public void visit(Mention[] mentions, int i, int j){
+				addString(headWords[i],headWords[j]);
+				addString(headWords[j],headWords[i]);
+			}
+		});
 	}
 
 	@Override
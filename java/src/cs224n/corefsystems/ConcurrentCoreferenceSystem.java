@@ -0,0 +1,13 @@
+package cs224n.corefsystems;
+
+/**
+ * A marker for coreference systems whose runCoreference() (and assignClusters(), for a
+ * FlatCoreferenceSystem) may be called on different documents at the same time; e.g., systems
+ * which only read what they learned in train(), and keep any per-document state in local variables.
+ *
+ * The tester runs only these systems on several threads (see the -threads flag); any other
+ * system is run on one document at a time, in order, so that its results do not depend on
+ * the number of threads.
+ */
+public interface ConcurrentCoreferenceSystem extends CoreferenceSystem {
+}
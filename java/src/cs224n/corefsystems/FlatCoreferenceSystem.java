@@ -0,0 +1,23 @@
+package cs224n.corefsystems;
+
+import cs224n.coref.ClusterAssignment;
+import cs224n.coref.Document;
+
+/**
+ * A coreference system which can give its output as a flat ClusterAssignment
+ * (a cluster id for each mention) rather than as a list of ClusteredMentions.
+ * The tester calls assignClusters() on such systems, so that no Entity or ClusteredMention
+ * objects need to be created to score them; runCoreference() is still used to debug them,
+ * and is usually implemented as assignClusters(doc).toClusteredMentions().
+ */
+public interface FlatCoreferenceSystem extends CoreferenceSystem {
+
+  /**
+   * Run coreference on a document, as runCoreference() does.
+   * Unlike runCoreference(), this should not mark the mentions as coreferent with any Entity.
+   *
+   * @param doc The document to run coreference on
+   * @return The cluster of every mention in the document (that is, of every mention of doc.getMentions())
+   */
+  public ClusterAssignment assignClusters(Document doc);
+}
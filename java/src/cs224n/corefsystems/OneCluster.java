@@ -10,7 +10,7 @@ import cs224n.coref.Entity;
 import cs224n.coref.Mention;
 import cs224n.util.Pair;
 
-public class OneCluster implements CoreferenceSystem {
+public class OneCluster implements ConcurrentCoreferenceSystem {
 
 	@Override
 	public void train(Collection<Pair<Document, List<Entity>>> trainingData) {
@@ -8,7 +8,7 @@ import cs224n.util.CounterMap;
 import cs224n.util.Pair;
 import cs224n.coref.Sentence.Token;
 
-public class RuleBased2 implements CoreferenceSystem {
+public class RuleBased2 implements FlatCoreferenceSystem, ConcurrentCoreferenceSystem {
 
   // Map of co-occuring mentions in the training documents
   private HashMap<String, Set<String>> coOccuringMentions = new HashMap<String, Set<String>>();
@@ -35,29 +35,32 @@ public class RuleBased2 implements CoreferenceSystem {
 
 
   private void generateAndMarkPairs(Entity e) {
-    Set<Mention> mentions = e.mentions;
-    for (Mention m1 : mentions) {
-      for (Mention m2 : mentions) {
-        String headWord1 = m1.headWord().toLowerCase();
-        String headWord2 = m2.headWord().toLowerCase();
-        addString(headWord1, headWord2);
-        addString(headWord2, headWord1);
-      }
+    Mention[] mentions = e.mentionArray();
+    // lower case each head word once, rather than once per pair
+    final String[] headWords = new String[mentions.length];
+    for (int i = 0; i < mentions.length; i++) {
+      headWords[i] = mentions[i].headWord().toLowerCase();
     }
+    Entity.forEachPair(mentions, true, true, new Entity.PairVisitor() {
+      public void visit(Mention[] mentions, int i, int j) {
+        addString(headWords[i], headWords[j]);
+        addString(headWords[j], headWords[i]);
+      }
+    });
   }
 
 
   private void updateDistance(Entity e) {
-    Set<Mention> allMentions = e.mentions;
-    for (Mention m1 : allMentions) {
-      Sentence sentence = m1.sentence;
-      for (Mention m2 : allMentions) {
-        if (m2.sentence.equals(sentence)) {
+    e.forEachPair(true, true, new Entity.PairVisitor() {
+      public void visit(Mention[] mentions, int i, int j) {
+        Mention m1 = mentions[i];
+        Mention m2 = mentions[j];
+        if (m2.sentence.equals(m1.sentence)) {
           totalDistance += Math.abs(m2.beginIndexInclusive - m1.endIndexExclusive);
           n++;
         }
       }
-    }
+    });
   }
 
   @Override
@@ -72,102 +75,65 @@ public class RuleBased2 implements CoreferenceSystem {
   }
 
 
-  public List<ClusteredMention> entitiesToClusters(ArrayList<Entity> entities) {
-    List<ClusteredMention> mentions = new ArrayList<ClusteredMention>();
-    for (Entity e : entities) {
-      for (Mention m : e.mentions) {
-        mentions.add(m.markCoreferent(e));
-      }
-    }
-    return mentions;
+  @Override
+  public List<ClusteredMention> runCoreference(Document doc) {
+    return assignClusters(doc).toClusteredMentions();
   }
 
   @Override
-  public List<ClusteredMention> runCoreference(Document doc) {
+  public ClusterAssignment assignClusters(Document doc) {
 
-    Map<Mention, Entity> clusters = new HashMap<Mention, Entity>();
-    ArrayList<Entity> entities = new ArrayList<Entity>();
+    MentionClusters clusters = new MentionClusters(doc.getMentions());
 
     // Pass 1: Exact match (extant text)
-    exactMatch(doc, clusters, entities);
+    exactMatch(doc, clusters);
 
     // Pass 2: Precise constructs
-    constructs(doc, clusters, entities);
+    constructs(doc, clusters);
 
     // Pass 3: Exact match (head words)
-    headMatch(doc, clusters, entities);
+    headMatch(doc, clusters);
 
 
     // Pass 4: Relaxed head matching (head word as a substring of extent text)
-    relaxedHeadMatch(doc, clusters, entities); // does worse...?
+    relaxedHeadMatch(doc, clusters); // does worse...?
 
     // Pass 5: Pronoun matching (agreement in gender, speaker, singular/plural, etc.)
-    pronounMatch(doc, clusters, entities);
+    pronounMatch(doc, clusters);
 
     // Pass 6: Co-occurring mentions
 //    coOccurring(doc, clusters, entities);
 
     // Pass 7: Speaker matching
-    speakerMatch(doc, clusters, entities);
+    speakerMatch(doc, clusters);
 
     // Pass 8: Pronoun-noun final match
-    pronounPass(doc, clusters, entities);
+    pronounPass(doc, clusters);
 
 //    System.out.println(clusters);
 
-    return entitiesToClusters(entities);
+    return clusters.toAssignment();
 
   }
 
 
-  private void mergeEntities(Mention m1, Mention m2, Map<Mention, Entity> clusters, ArrayList<Entity> entities) {
-    Entity e1 = clusters.get(m1);
-    Entity e2 = clusters.get(m2);
-    if (e1.equals(e2)) return;
-
-//    Gender g1 = getGender(e1);
-//    Gender g2 = getGender(e2);
-
-//    if (!g1.isCompatible(g2)) return;
-
-//    Boolean plural1 = getPlural(e1);
-//    Boolean plural2 = getPlural(e2);
-//    if (plural1 != plural2) return;
-
-//    Speaker s1 = getSpeaker(e1);
-//    Speaker s2 = getSpeaker(e2);
-
-//    if (s1 != s2 && !(s1 == null || s2 == null)) return;
-    entities.remove(e2);
-    for (Mention m : e2.mentions) {
-      m.removeCoreference();
-      clusters.put(m, e1);
-      e1.add(m);
-    }
-
-//    System.out.println("-----start");
-//    System.out.println(m1.sentence);
-//    System.out.println(m2.sentence);
-//    System.out.println(m1.gloss());
-//    System.out.println(m2.gloss());
-//    System.out.println("-----end");
-  }
-
   /**
    * Speaker matching
    * @param doc
    * @param clusters
-   * @param entities
    */
-  private void speakerMatch(Document doc, Map<Mention, Entity> clusters, ArrayList<Entity> entities) {
+  private void speakerMatch(Document doc, MentionClusters clusters) {
     List<Mention> allMentions = doc.getMentions();
-    for (Mention m1 : allMentions) {
-      for (Mention m2 : allMentions) {
-        if (clusters.get(m1).equals(clusters.get(m2))) continue;
-
-        if (m1.sentence.equals(m2.sentence) && m1.sentence.tokens.get(m1.headWordIndex).isQuoted() &&
+    MentionAttributes attr = doc.attributes();
+    for (int i = 0; i < allMentions.size(); i++) {
+      Mention m1 = allMentions.get(i);
+      for (int j = 0; j < allMentions.size(); j++) {
+        Mention m2 = allMentions.get(j);
+        if (clusters.same(i, j)) continue;
+
+        if (m1.sentence.equals(m2.sentence) && attr.quoted[i] &&
           m1.sentence.tokens.get(m1.headWordIndex).speaker().lastIndexOf(m2.headWord()) != -1 &&
-          Pronoun.valueOrNull(m2.headWord()) == null)
+          attr.pronoun[j] == null)
         {
 //          System.out.println("-----start");
 //          System.out.println(m1.sentence);
@@ -176,30 +142,33 @@ public class RuleBased2 implements CoreferenceSystem {
 //          System.out.println(m2.headWord());
 //          System.out.println(m1.sentence.tokens.get(m1.headWordIndex).speaker());
 //          System.out.println("-----end");
-          mergeEntities(m1, m2, clusters, entities);
+          clusters.merge(i, j);
         }
       }
     }
   }
 
 
-  private void pronounPass(Document doc, Map<Mention, Entity> clusters, ArrayList<Entity> entities) {
+  private void pronounPass(Document doc, MentionClusters clusters) {
     List<Mention> allMentions = doc.getMentions();
-    for (Mention m1 : allMentions) {
+    MentionAttributes attr = doc.attributes();
+    for (int i = 0; i < allMentions.size(); i++) {
+      Mention m1 = allMentions.get(i);
       Sentence sentence = m1.sentence;
-      for (Mention m2 : allMentions) {
+      for (int j = 0; j < allMentions.size(); j++) {
+        Mention m2 = allMentions.get(j);
         if (m2.sentence.equals(sentence)) {
 
           if (!(Math.abs(m1.beginIndexInclusive - m2.endIndexExclusive) <= (.5 * (float) totalDistance) / n)) continue;
 
-          if (clusters.get(m1).equals(clusters.get(m2))) continue;
-          Pronoun p1 = Pronoun.valueOrNull(m1.headWord());
+          if (clusters.same(i, j)) continue;
+          Pronoun p1 = attr.pronoun[i];
 
           if (p1 != null && (m2.headToken().isNoun() || m2.headToken().isProperNoun() || m2.headToken().isPluralNoun())) {
             if (p1.plural && m2.headToken().isPluralNoun() && p1.speaker == Speaker.THIRD_PERSON) {
-              mergeEntities(m1, m2, clusters, entities);
+              clusters.merge(i, j);
             } else if (!p1.plural && (!m2.headToken().isPluralNoun()) && p1.speaker == Speaker.THIRD_PERSON) {
-              mergeEntities(m1, m2, clusters, entities);
+              clusters.merge(i, j);
             }
           }
         }
@@ -212,36 +181,38 @@ public class RuleBased2 implements CoreferenceSystem {
    * Pronoun matching
    * @param doc
    * @param clusters
-   * @param entities
    */
-  private void pronounMatch(Document doc, Map<Mention, Entity> clusters, ArrayList<Entity> entities) {
+  private void pronounMatch(Document doc, MentionClusters clusters) {
     List<Mention> allMentions = doc.getMentions();
-    for (Mention m1 : allMentions) {
-      Pronoun p1 = Pronoun.valueOrNull(m1.headWord());
+    MentionAttributes attr = doc.attributes();
+    for (int i = 0; i < allMentions.size(); i++) {
+      Mention m1 = allMentions.get(i);
+      Pronoun p1 = attr.pronoun[i];
 
-      for (Mention m2 : allMentions) {
-        if (clusters.get(m1).equals(clusters.get(m2))) continue;
-        Pronoun p2 = Pronoun.valueOrNull(m2.headWord());
+      for (int j = 0; j < allMentions.size(); j++) {
+        Mention m2 = allMentions.get(j);
+        if (clusters.same(i, j)) continue;
+        Pronoun p2 = attr.pronoun[j];
 
         if (p1 == null || p2 == null) continue;
 
         // First person pronouns
         if (p1.speaker.equals(Speaker.FIRST_PERSON) && p2.speaker.equals(p1.speaker) && p1.plural == p2.plural)
         {
-          mergeEntities(m1, m2, clusters, entities);
+          clusters.merge(i, j);
         }
 
         // Second person pronouns
         if (p1.speaker.equals(Speaker.SECOND_PERSON) && p2.speaker.equals(p1.speaker))
         {
-          mergeEntities(m1, m2, clusters, entities);
+          clusters.merge(i, j);
         }
 
         // Third person pronouns
         if (p1.speaker.equals(Speaker.THIRD_PERSON) && p2.speaker.equals(p1.speaker) &&
           p1.gender.isCompatible(p2.gender) && p1.plural == p2.plural)
         {
-          mergeEntities(m1, m2, clusters, entities);
+          clusters.merge(i, j);
         }
 
 //        if (coOccuringMentions.containsKey(m1.headWord()) && coOccuringMentions.get(m1.headWord()).contains(m2.headWord())) {
@@ -257,13 +228,15 @@ public class RuleBased2 implements CoreferenceSystem {
    * Relaxed head word matching (case insensitive)
    * @param doc
    * @param clusters
-   * @param entities
    */
-  private void relaxedHeadMatch(Document doc, Map<Mention, Entity> clusters, ArrayList<Entity> entities) {
+  private void relaxedHeadMatch(Document doc, MentionClusters clusters) {
     List<Mention> allMentions = doc.getMentions();
-    for (Mention m1 : allMentions) {
-      for (Mention m2 : allMentions) {
-        if (clusters.get(m1).equals(clusters.get(m2))) continue;
+    MentionAttributes attr = doc.attributes();
+    for (int i = 0; i < allMentions.size(); i++) {
+      Mention m1 = allMentions.get(i);
+      for (int j = 0; j < allMentions.size(); j++) {
+        Mention m2 = allMentions.get(j);
+        if (clusters.same(i, j)) continue;
 
         // case insensitive head word matching (except for third person pronouns)
 //        if (m1.gloss().lastIndexOf(m2.headWord()) != -1 &&
@@ -275,8 +248,8 @@ public class RuleBased2 implements CoreferenceSystem {
 //        }
 
         if (coOccuringMentions.containsKey(m1.headWord()) && coOccuringMentions.get(m1.headWord()).contains(m2.headWord()) &&
-          Pronoun.valueOrNull(m1.headWord()) == null &&
-          Pronoun.valueOrNull(m2.headWord()) == null &&
+          attr.pronoun[i] == null &&
+          attr.pronoun[j] == null &&
           !m1.headWord().equalsIgnoreCase("this") &&
           !m2.headWord().equalsIgnoreCase("this") &&
           !m1.headWord().equalsIgnoreCase("that") &&
@@ -291,7 +264,7 @@ public class RuleBased2 implements CoreferenceSystem {
 //          System.out.println("m2 gloss: " + m2.gloss());
 //          System.out.println(coMentions.getCount(m1.headWord(), m2.headWord()));
 //          System.out.println("-----end");
-          mergeEntities(m1, m2, clusters, entities);
+          clusters.merge(i, j);
         }
 
       }
@@ -303,22 +276,24 @@ public class RuleBased2 implements CoreferenceSystem {
    * Exact head word matching (case insensitive)
    * @param doc
    * @param clusters
-   * @param entities
    */
-  private void headMatch(Document doc, Map<Mention, Entity> clusters, ArrayList<Entity> entities) {
+  private void headMatch(Document doc, MentionClusters clusters) {
     List<Mention> allMentions = doc.getMentions();
-    for (Mention m1 : allMentions) {
-      for (Mention m2 : allMentions) {
-        if (clusters.get(m1).equals(clusters.get(m2))) continue;
+    MentionAttributes attr = doc.attributes();
+    for (int i = 0; i < allMentions.size(); i++) {
+      Mention m1 = allMentions.get(i);
+      for (int j = 0; j < allMentions.size(); j++) {
+        Mention m2 = allMentions.get(j);
+        if (clusters.same(i, j)) continue;
 
         Pronoun p1, p2;
 
         // case insensitive head word matching (except for third person pronouns)
-        if (m1.headWord().equalsIgnoreCase(m2.headWord()) &&
-          !((p1 = Pronoun.valueOrNull(m1.headWord())) != null && p1.speaker.equals(Speaker.THIRD_PERSON)) &&
-          !((p2 = Pronoun.valueOrNull(m2.headWord())) != null && p2.speaker.equals(Speaker.THIRD_PERSON)))
+        if (attr.lowerHead[i] == attr.lowerHead[j] &&
+          !((p1 = attr.pronoun[i]) != null && p1.speaker.equals(Speaker.THIRD_PERSON)) &&
+          !((p2 = attr.pronoun[j]) != null && p2.speaker.equals(Speaker.THIRD_PERSON)))
         {
-          mergeEntities(m1, m2, clusters, entities);
+          clusters.merge(i, j);
 
         }
       }
@@ -329,19 +304,21 @@ public class RuleBased2 implements CoreferenceSystem {
    * Constructs (appositives, predicate nominatives, etc.)
    * @param doc
    * @param clusters
-   * @param entities
    */
-  private void constructs(Document doc, Map<Mention, Entity> clusters, ArrayList<Entity> entities) {
+  private void constructs(Document doc, MentionClusters clusters) {
 
     List<Mention> allMentions = doc.getMentions();
+    MentionAttributes attr = doc.attributes();
 
     // loop through all pairs of mentions that aren't already in the same cluster
-    for (Mention m1 : allMentions) {
+    for (int i = 0; i < allMentions.size(); i++) {
+      Mention m1 = allMentions.get(i);
       Sentence sentence = m1.sentence;
       List<Token> tokens = sentence.tokens;
       String posTag1 = tokens.get(m1.headWordIndex).posTag();
-      for (Mention m2 : allMentions) {
-        if (clusters.get(m1).equals(clusters.get(m2))) continue;
+      for (int j = 0; j < allMentions.size(); j++) {
+        Mention m2 = allMentions.get(j);
+        if (clusters.same(i, j)) continue;
 
         // if both mentions are in the same sentence
         if (m2.sentence.equals(sentence)) {
@@ -355,16 +332,16 @@ public class RuleBased2 implements CoreferenceSystem {
             if ((posTag1.equals("PRP") && posTag2.equals("NNP")) ||
               (posTag1.equals("NNS") && posTag2.equals("DT")))
             {
-              mergeEntities(m1, m2, clusters, entities);
+              clusters.merge(i, j);
             }
             Pronoun p2;
             if (posTag1.equals("NNP") && posTag2.equals("PRP") && !Name.isName(m1.headWord()) &&
-              Pronoun.valueOrNull(m1.headWord()) == null &&
-              (p2 = Pronoun.valueOrNull(m2.headWord())) != null)
+              attr.pronoun[i] == null &&
+              (p2 = attr.pronoun[j]) != null)
             {
               if (p2.speaker.equals(Speaker.THIRD_PERSON) && !p2.gender.isAnimate())
               {
-                mergeEntities(m1, m2, clusters, entities);
+                clusters.merge(i, j);
               }
             }
           }
@@ -376,18 +353,18 @@ public class RuleBased2 implements CoreferenceSystem {
             (m2.beginIndexInclusive > m1.endIndexExclusive))
           {
             Pronoun p2;
-            if ((p2 = Pronoun.valueOrNull(m2.headWord())) != null)
+            if ((p2 = attr.pronoun[j]) != null)
             {
               if (p2.speaker.equals(Speaker.THIRD_PERSON) &&
                 (!p2.gender.isAnimate() || p2.gender.equals(Gender.EITHER)) &&
-                Pronoun.valueOrNull(m1.headWord()) == null)
+                attr.pronoun[i] == null)
               {
-                mergeEntities(m1, m2, clusters, entities);
+                clusters.merge(i, j);
               }
             }
             if (tokens.get(m1.headWordIndex).posTag().equals("NNP") && tokens.get(m2.headWordIndex).posTag().equals("PRP$"))
             {
-              mergeEntities(m1, m2, clusters, entities);
+              clusters.merge(i, j);
             }
           }
 
@@ -398,7 +375,7 @@ public class RuleBased2 implements CoreferenceSystem {
             m2.gloss().lastIndexOf(m1.gloss()) != -1 &&
             m2.gloss().length() - m1.gloss().length() < 5)
           {
-            mergeEntities(m1, m2, clusters, entities);
+            clusters.merge(i, j);
           }
         }
       }
@@ -409,28 +386,23 @@ public class RuleBased2 implements CoreferenceSystem {
    * Exact matching of extent text
    * @param doc
    * @param clusters
-   * @param entities
    */
-  private void exactMatch(Document doc, Map<Mention, Entity> clusters, ArrayList<Entity> entities) {
+  private void exactMatch(Document doc, MentionClusters clusters) {
 
-    Map<String, Entity> clusterNames = new HashMap<String, Entity>();
+    Map<String, Integer> clusterNames = new HashMap<String, Integer>();
 
     // loop through mentions
-    for (Mention m : doc.getMentions()) {
-      String mentionString = m.gloss();
+    MentionAttributes attr = doc.attributes();
+    for (int i = 0; i < attr.size(); i++) {
+      String lowerGloss = attr.string(attr.lowerGloss[i]);
       // if we've seen this extent text, and the head word is not a pronoun
-      if (clusterNames.containsKey(mentionString.toLowerCase()) &&
-        (Pronoun.valueOrNull(m.headWord())) == null) {
+      if (clusterNames.containsKey(lowerGloss) &&
+        attr.pronoun[i] == null) {
         // merge clusters
-        Entity toMerge = clusterNames.get(mentionString.toLowerCase());
-        m.markCoreferent(toMerge);
-        clusters.put(m, toMerge);
+        clusters.merge(clusterNames.get(lowerGloss), i);
       } else {
-        // create new singleton cluster
-        ClusteredMention newCluster = m.markSingleton();
-        clusterNames.put(mentionString.toLowerCase(), newCluster.entity);
-        clusters.put(m, newCluster.entity);
-        entities.add(newCluster.entity);
+        // start a new cluster from this (singleton) mention
+        clusterNames.put(lowerGloss, i);
       }
     }
   }
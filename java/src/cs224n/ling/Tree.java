@@ -1,6 +1,8 @@
 package cs224n.ling;
 
 import cs224n.util.Decodable;
+import cs224n.util.EncodeVerifier;
+import cs224n.util.Vocabulary;
 import cs224n.util.Pair;
 
 import java.io.Serializable;
@@ -8,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represent linguistic trees, with each node consisting of a label
@@ -16,18 +19,29 @@ import java.util.List;
  * @author Gabor Angeli (custom serialization; equals() and hashCode())
  */
 public class Tree<L> implements Serializable, Decodable {
-  private static int nextUniqueIndex = 0;
+  //(pinned to the value computed for earlier versions, so serialized trees stay readable)
+  private static final long serialVersionUID = 591749080525091341L;
+  private static final AtomicInteger nextUniqueIndex = new AtomicInteger(0);
 
   private L label;
   private List<Tree<L>> children;
-  private int uniqueIndex = nextUniqueIndex++;
+  private int uniqueIndex = nextUniqueIndex.getAndIncrement();
+  //(the span of leaves under this node, if known; see hasSpan(). Not updated when the tree changes)
+  private transient boolean hasSpan = false;
+  private transient int spanStart;
+  private transient int spanEnd;
 
 
   public List<Tree<L>> getChildren() {
     return children;
   }
+  /**
+   * Set the children of this node. This forgets the span of this node only; the spans of
+   * its ancestors (and of any tree holding it) are left stale (see hasSpan()).
+   */
   public void setChildren(List<Tree<L>> children) {
     this.children = children;
+    this.hasSpan = false;
   }
   public L getLabel() {
     return label;
@@ -51,6 +65,83 @@ public class Tree<L> implements Serializable, Decodable {
     return ! (isLeaf() || isPreTerminal());
   }
 
+  /**
+   * Returns whether this node knows its span of leaves.
+   * This is the case for trees built by decode() or by indexSpans(), until
+   * their children are set again.
+   *
+   * Spans are only valid for trees which are not changed after they are computed:
+   * neither setChildren() on any node nor a change to a list from getChildren() updates
+   * the spans of the nodes above it, so their spans (and yieldSize()) silently become wrong.
+   * After changing a tree, call indexSpans() on its root again.
+   */
+  public boolean hasSpan() {
+    return hasSpan;
+  }
+
+  /**
+   * The index of the first leaf under this node, relative to the root the span was
+   * computed from (see hasSpan()).
+   */
+  public int getSpanStart() {
+    if(!hasSpan){ throw new IllegalStateException("Span of tree is not known: " + this); }
+    return spanStart;
+  }
+
+  /**
+   * The index after the last leaf under this node, relative to the root the span was
+   * computed from (see hasSpan()).
+   */
+  public int getSpanEnd() {
+    if(!hasSpan){ throw new IllegalStateException("Span of tree is not known: " + this); }
+    return spanEnd;
+  }
+
+  /* Returns the number of leaves under this node; this is the same as
+   * getYield().size(), but does not walk the tree if the span is known
+   * (so it is only correct for trees not changed since their spans were
+   * computed; see hasSpan()) */
+  public int yieldSize() {
+    return hasSpan ? spanEnd - spanStart : getYield().size();
+  }
+
+  /**
+   * Record the span of leaves of every node in this tree, relative to this node.
+   * Trees built by decode() already know their spans; call this again on the root
+   * after changing a tree, to bring the spans up to date (see hasSpan()).
+   */
+  public void indexSpans() {
+    //(iterative post-order walk, so deep trees are fine)
+    LinkedList<Tree<L>> stack = new LinkedList<Tree<L>>();
+    LinkedList<Integer> starts = new LinkedList<Integer>();
+    LinkedList<Integer> nextChild = new LinkedList<Integer>();
+    stack.addFirst(this);
+    starts.addFirst(0);
+    nextChild.addFirst(0);
+    int leaves = 0;
+    while(!stack.isEmpty()){
+      Tree<L> node = stack.getFirst();
+      int child = nextChild.removeFirst();
+      if(child < node.children.size()){
+        nextChild.addFirst(child + 1);
+        stack.addFirst(node.children.get(child));
+        starts.addFirst(leaves);
+        nextChild.addFirst(0);
+      } else {
+        stack.removeFirst();
+        int start = starts.removeFirst();
+        if(node.isLeaf()){ leaves += 1; }
+        node.setSpan(start, leaves);
+      }
+    }
+  }
+
+  private void setSpan(int start, int end) {
+    this.spanStart = start;
+    this.spanEnd = end;
+    this.hasSpan = true;
+  }
+
   /* Returns a list of words at the leafs of this tree gotten by
    * traversing from left to right */
   public List<L> getYield() {
@@ -214,7 +305,7 @@ public class Tree<L> implements Serializable, Decodable {
     int childIndex = 0;
     int lastYield = 0;
     while(yieldSoFar <= index){
-      lastYield = children.get(childIndex).getYield().size();
+      lastYield = children.get(childIndex).yieldSize();
       yieldSoFar += lastYield;
       childIndex += 1;
     }
@@ -296,54 +387,159 @@ public class Tree<L> implements Serializable, Decodable {
   //--------------
   // SERIALIZATION
   //--------------
+  private static final EncodeVerifier verifier = new EncodeVerifier();
+
   public String encode() {
+    String encoded = toString();
     //(error check)
-    Tree<String> decoded = decode(toString());
-    if(!decoded.equals(this)){
+    if(verifier.shouldVerify() && !decode(encoded).equals(this)){
       throw new IllegalStateException("Did not encode tree properly");
     }
     //(return)
-    return toString();
+    return encoded;
   }
 
-  private static Pair<ArrayList<Tree<String>>,Integer> decodeChildren(char[] encoded, int pos, int depth){
-    ArrayList<Tree<String>> children = new ArrayList<Tree<String>>();
-    //(beginning whitespace)
-    while(encoded[pos] == ' '){ pos +=1; }
-    //(get children)
-    while(pos < encoded.length && encoded[pos] != ')'){
-      Pair<Tree<String>, Integer> childPair = decodeTree(encoded, pos, depth);
-      children.add(childPair.getFirst());
-      pos = childPair.getSecond();
+  /**
+   * Find the subtree of this tree whose yield starts at the given leaf, and whose
+   * encoding (i.e., toString()) is exactly the given range of characters.
+   * This lets a decoder reuse an existing subtree rather than decode a copy of it.
+   * @param leafIndex The index of the first leaf of the subtree
+   * @param encoded The characters holding the encoded subtree
+   * @param start The start of the encoded subtree in encoded, inclusive
+   * @param end The end of the encoded subtree in encoded, exclusive
+   * @return The matching subtree, or null if there is none
+   */
+  public Tree<L> findSubtree(int leafIndex, CharSequence encoded, int start, int end){
+    //(pre-order walk, counting leaves to know where each node's yield starts)
+    LinkedList<Tree<L>> stack = new LinkedList<Tree<L>>();
+    stack.addFirst(this);
+    int leavesSeen = 0;
+    while(!stack.isEmpty() && leavesSeen <= leafIndex){
+      Tree<L> node = stack.removeFirst();
+      if(leavesSeen == leafIndex && node.matchEncoding(encoded, start, end) == end){
+        return node;
+      }
+      if(node.isLeaf()){
+        leavesSeen += 1;
+      } else {
+        for(int i=node.children.size()-1; i>=0; i--){ stack.addFirst(node.children.get(i)); }
+      }
     }
-    //(return)
-    pos += 1;
-    return Pair.make(children,pos);
-  }
-  private static Pair<Tree<String>,Integer> decodeTree(char[] encoded, int pos, int depth){
-    //(beginning whitespace)
-    while(encoded[pos] == ' '){ pos +=1; }
-    //(skip open paren)
-    if(encoded[pos] == '('){ pos += 1; }
-    //(get head)
-    StringBuilder head = new StringBuilder();
-    while(encoded[pos] != ' ' && encoded[pos] != ')'){
-      head.append(encoded[pos]);
+    return null;
+  }
+
+  /* Match toString() against the characters starting at pos;
+   * returns the position after the match, or -1 if they differ */
+  private int matchEncoding(CharSequence encoded, int pos, int end){
+    if(!isLeaf()){
+      if(pos >= end || encoded.charAt(pos) != '('){ return -1; }
       pos += 1;
     }
-    //(get children)
-    if(pos >= encoded.length || encoded[pos] == ')'){
-      return Pair.make(new Tree<String>(head.toString()),pos);
-    } else {
-      Pair<ArrayList<Tree<String>>, Integer> childrenPair = decodeChildren(encoded, pos, depth+1);
-      return Pair.make(new Tree<String>(head.toString(),childrenPair.getFirst()),childrenPair.getSecond());
+    if(label != null){
+      String str = label.toString();
+      if(pos + str.length() > end){ return -1; }
+      for(int i=0; i<str.length(); i++){
+        if(encoded.charAt(pos+i) != str.charAt(i)){ return -1; }
+      }
+      pos += str.length();
+    }
+    if(!isLeaf()){
+      for(Tree<L> child : children){
+        if(pos >= end || encoded.charAt(pos) != ' '){ return -1; }
+        pos = child.matchEncoding(encoded, pos+1, end);
+        if(pos < 0){ return -1; }
+      }
+      if(pos >= end || encoded.charAt(pos) != ')'){ return -1; }
+      pos += 1;
     }
+    return pos;
+  }
+
+  /* The labels of internal nodes seen by decode(), shared across all decoded trees; leaves
+   * (words) are not interned, so this stays as small as the set of tags */
+  private static final Vocabulary labels = new Vocabulary();
+
+  private static String internLabel(String label){
+    return labels.get(labels.id(label));
   }
+
+  /**
+   * Decode a tree from its bracketed encoding, as written by encode().
+   * The tree is built in a single left-to-right pass with an explicit stack, so
+   * arbitrarily deep trees can be decoded. The labels of internal nodes are interned, so that
+   * identical tags across trees share one String. Every decoded node also records its span of leaves
+   * (see getSpanStart()), relative to the root of the decoded tree.
+   * @param encoded The encoded tree
+   * @return The decoded tree
+   */
   public static Tree<String> decode(String encoded){
     if(!encoded.contains("(") && !encoded.contains(")")){
-      return new Tree<String>(encoded);
-    } else {
-      return decodeTree(encoded.toCharArray(), 0, 0).getFirst();
+      Tree<String> leaf = new Tree<String>(encoded);
+      leaf.setSpan(0, 1);
+      return leaf;
     }
+    //(the nodes whose children are still being read, and the leaf index at which each starts)
+    ArrayList<String> openLabels = new ArrayList<String>();
+    ArrayList<ArrayList<Tree<String>>> openChildren = new ArrayList<ArrayList<Tree<String>>>();
+    ArrayList<Integer> openStarts = new ArrayList<Integer>();
+    int length = encoded.length();
+    int pos = 0;
+    int leaves = 0;
+    while(true){
+      //--Read Node
+      //(beginning whitespace)
+      pos = skipSpaces(encoded, pos);
+      //(skip open paren)
+      if(encoded.charAt(pos) == '('){ pos += 1; }
+      //(get head)
+      int headStart = pos;
+      while(charAt(encoded, pos) != ' ' && encoded.charAt(pos) != ')'){ pos += 1; }
+      String head = encoded.substring(headStart, pos);
+      Tree<String> done;
+      if(encoded.charAt(pos) == ')'){
+        //(case: leaf; the close paren is left for the parent)
+        done = new Tree<String>(head);
+        done.setSpan(leaves, leaves + 1);
+        leaves += 1;
+      } else {
+        //(case: open a node, and move on to its first child)
+        openLabels.add(internLabel(head));
+        openChildren.add(new ArrayList<Tree<String>>());
+        openStarts.add(leaves);
+        pos = skipSpaces(encoded, pos);
+        if(pos < length && encoded.charAt(pos) != ')'){ continue; }
+        done = null;
+      }
+      //--Close Nodes
+      //(attach the finished node, and close every parent which has no more children)
+      while(true){
+        if(done != null){
+          if(openChildren.isEmpty()){ return done; }
+          openChildren.get(openChildren.size()-1).add(done);
+          if(pos < length && encoded.charAt(pos) != ')'){ break; }
+        }
+        pos += 1;  // consume the close paren
+        int top = openChildren.size() - 1;
+        ArrayList<Tree<String>> children = openChildren.remove(top);
+        done = new Tree<String>(openLabels.remove(top), children);
+        int start = openStarts.remove(top);
+        if(children.isEmpty()){
+          done.setSpan(leaves, leaves + 1);  // with no children, the node is itself a leaf
+          leaves += 1;
+        } else {
+          done.setSpan(start, leaves);
+        }
+      }
+    }
+  }
+
+  private static int skipSpaces(String encoded, int pos){
+    while(charAt(encoded, pos) == ' '){ pos += 1; }
+    return pos;
+  }
+
+  private static char charAt(String encoded, int pos){
+    if(pos >= encoded.length()){ throw new IllegalArgumentException("Could not decode tree (unexpected end): " + encoded); }
+    return encoded.charAt(pos);
   }
 }
@@ -0,0 +1,171 @@
+package cs224n.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.*;
+
+/**
+ * A read-only list over a RefreshFunction, which keeps recently used elements
+ * (typically decoded documents) in memory, so that iterating over the data
+ * several times does not recompute every element on every pass.
+ *
+ * The cache holds at most a given number of entries, and at most a given total
+ * weight (as measured by a Weigher); when either budget is exceeded, the least recently
+ * used entries are evicted. Entries may also be held through soft references, in which
+ * case the garbage collector may reclaim them when memory runs low.
+ *
+ * The cache counts hits, misses (the first computation of an element), reloads
+ * (computing an element again, after it was evicted or collected) and evictions.
+ * It is safe to use from several threads; elements are computed outside of the cache's
+ * lock, so that (e.g.) a Prefetcher can decode several documents at once.
+ */
+public class DocumentCache<E> extends AbstractList<E> implements WeakReferenceList.RefreshFunction<E> {
+
+  /**
+   * Measures the weight of an element against the cache's budget (e.g., its
+   * approximate size in memory)
+   */
+  public static interface Weigher<E> {
+    public long weigh(E element);
+  }
+
+  private static class Entry<E> {
+    private final E strong;
+    private final IndexedReference<E> soft;
+    private final long weight;
+    private Entry(E element, IndexedReference<E> soft, long weight){
+      this.strong = soft == null ? element : null;
+      this.soft = soft;
+      this.weight = weight;
+    }
+    private E get(){ return soft == null ? strong : soft.get(); }
+  }
+
+  private static class IndexedReference<E> extends SoftReference<E> {
+    private final int index;
+    private IndexedReference(E element, int index, ReferenceQueue<E> queue){
+      super(element, queue);
+      this.index = index;
+    }
+  }
+
+  private final WeakReferenceList.RefreshFunction<E> source;
+  private final int maxEntries;
+  private final long maxWeight;
+  private final Weigher<E> weigher;
+  private final boolean softReferences;
+
+  //(guarded by this)
+  private final LinkedHashMap<Integer,Entry<E>> entries = new LinkedHashMap<Integer,Entry<E>>(16, 0.75f, true);
+  private final ReferenceQueue<E> collected = new ReferenceQueue<E>();
+  private final BitSet everLoaded = new BitSet();
+  private long weight = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long reloads = 0;
+  private long evictions = 0;
+
+  /**
+   * Create a cache with no budget, holding its entries through soft references;
+   * entries are then only dropped when the garbage collector needs the memory.
+   * @param source The function computing the i'th element
+   */
+  public DocumentCache(WeakReferenceList.RefreshFunction<E> source){
+    this(source, Integer.MAX_VALUE, Long.MAX_VALUE, null, true);
+  }
+
+  /**
+   * Create a new cache
+   * @param source The function computing the i'th element
+   * @param maxEntries The maximum number of elements to keep
+   * @param maxWeight The maximum total weight of the elements to keep
+   * @param weigher The weight of each element; if null, every element weighs 1
+   * @param softReferences If true, the garbage collector may also drop entries when memory runs low
+   */
+  public DocumentCache(WeakReferenceList.RefreshFunction<E> source, int maxEntries, long maxWeight, Weigher<E> weigher, boolean softReferences){
+    if(maxEntries < 1){ throw new IllegalArgumentException("Cache must hold at least one entry: " + maxEntries); }
+    if(maxWeight < 1){ throw new IllegalArgumentException("Invalid cache weight: " + maxWeight); }
+    this.source = source;
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+    this.softReferences = softReferences;
+  }
+
+  public int size() {
+    return source.size();
+  }
+
+  public E get(int i) {
+    if(i < 0 || i >= size()){ throw new IndexOutOfBoundsException("" + i); }
+    //--Lookup
+    synchronized(this){
+      purgeCollected();
+      Entry<E> entry = entries.get(i);
+      if(entry != null){
+        E element = entry.get();
+        if(element != null){
+          hits += 1;
+          return element;
+        }
+        discard(i);
+      }
+      if(everLoaded.get(i)){
+        reloads += 1;
+      } else {
+        misses += 1;
+        everLoaded.set(i);
+      }
+    }
+    //--Load
+    //(outside the lock; two threads may occasionally load the same element)
+    E element = source.get(i);
+    long elementWeight = weigher == null ? 1 : weigher.weigh(element);
+    synchronized(this){
+      Entry<E> old = entries.put(i, new Entry<E>(element, softReferences ? new IndexedReference<E>(element, i, collected) : null, elementWeight));
+      if(old != null){ weight -= old.weight; }
+      weight += elementWeight;
+      //(evict least recently used entries, but never the one just loaded)
+      Iterator<Map.Entry<Integer,Entry<E>>> iter = entries.entrySet().iterator();
+      while((entries.size() > maxEntries || weight > maxWeight) && iter.hasNext()){
+        Map.Entry<Integer,Entry<E>> eldest = iter.next();
+        if(eldest.getKey() == i){ continue; }
+        iter.remove();
+        weight -= eldest.getValue().weight;
+        evictions += 1;
+      }
+    }
+    return element;
+  }
+
+  private void discard(int i){
+    Entry<E> entry = entries.remove(i);
+    if(entry != null){ weight -= entry.weight; }
+  }
+
+  @SuppressWarnings({"unchecked"})
+  private void purgeCollected(){
+    IndexedReference<E> ref;
+    while((ref = (IndexedReference<E>) collected.poll()) != null){
+      Entry<E> entry = entries.get(ref.index);
+      if(entry != null && entry.soft == ref){ discard(ref.index); }
+    }
+  }
+
+  /** The number of lookups answered from the cache */
+  public synchronized long hits(){ return hits; }
+  /** The number of elements computed for the first time */
+  public synchronized long misses(){ return misses; }
+  /** The number of elements computed again, after being evicted or collected */
+  public synchronized long reloads(){ return reloads; }
+  /** The number of entries evicted to stay within budget (not counting garbage collected entries) */
+  public synchronized long evictions(){ return evictions; }
+  /** The number of elements currently cached */
+  public synchronized int cachedEntries(){ purgeCollected(); return entries.size(); }
+
+  /** A one line summary of the counters */
+  public synchronized String stats(){
+    return (misses + reloads) + " loads (" + misses + " misses, " + reloads + " reloads), " +
+        hits + " hits, " + evictions + " evictions, " + entries.size() + " cached";
+  }
+}
@@ -0,0 +1,67 @@
+package cs224n.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when an encode() method should check its output by decoding it
+ * again and comparing the result to the original.
+ * These round trips are an important sanity check, but can more than double the
+ * cost of writing a corpus. The check can be run always (the default), never,
+ * or on a fixed fraction of the records of each type.
+ *
+ * Each encoding class keeps its own verifier, so that sampling (e.g.) trees
+ * does not starve the checks on documents. Sampling is deterministic: with a rate
+ * of 1/k, the first record and every k'th record after it is checked.
+ */
+public class EncodeVerifier {
+
+  public static enum Mode { ALWAYS, SAMPLED, NEVER }
+
+  private static volatile Mode mode = Mode.ALWAYS;
+  private static volatile long period = 1;
+
+  private final AtomicLong calls = new AtomicLong(0);
+
+  /**
+   * Set how encode() methods verify their output, for all encoding classes.
+   * @param mode Whether to verify always, never, or on a sample of records
+   * @param sampleRate The fraction of records to verify, in (0, 1]; only used by SAMPLED
+   */
+  public static void configure(Mode mode, double sampleRate){
+    if(mode == Mode.SAMPLED && (sampleRate <= 0.0 || sampleRate > 1.0)){
+      throw new IllegalArgumentException("Sample rate must be in (0, 1]: " + sampleRate);
+    }
+    EncodeVerifier.period = mode == Mode.SAMPLED ? Math.max(1L, Math.round(1.0 / sampleRate)) : 1L;
+    EncodeVerifier.mode = mode;
+  }
+
+  /**
+   * Configure verification from a command line value: "always", "never", or
+   * "sampled:[rate]" (e.g. "sampled:0.01").
+   * @param spec The verification mode to use
+   */
+  public static void configure(String spec){
+    String[] parts = spec.trim().split(":", 2);
+    Mode mode = Mode.valueOf(parts[0].trim().toUpperCase());
+    double rate = parts.length > 1 ? Double.parseDouble(parts[1].trim()) : 0.01;
+    configure(mode, rate);
+  }
+
+  /** The current verification mode */
+  public static Mode mode(){ return mode; }
+
+  /**
+   * Whether the current call to encode() should verify its output
+   * @return True if the encoded record should be decoded and checked
+   */
+  public boolean shouldVerify(){
+    switch(mode){
+      case ALWAYS:
+        return true;
+      case NEVER:
+        return false;
+      default:
+        return calls.getAndIncrement() % period == 0;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package cs224n.util;
+
+import java.util.Arrays;
+
+/**
+ * The Kuhn-Munkres (Hungarian) algorithm for the assignment problem: given a matrix of
+ * weights between rows and columns, find the one-to-one matching of rows to columns with
+ * the largest total weight. This is the O(n^2 m) variant with row and column potentials,
+ * which adds one row at a time along a shortest augmenting path; it works on rectangular
+ * matrices directly, without padding them to be square.
+ *
+ * For sparse problems (most pairs of rows and columns have weight 0), split the
+ * problem into its connected components first and solve each one separately; a
+ * component is usually small even when the whole matrix is not.
+ */
+public class Hungarian {
+
+  private Hungarian(){ }
+
+  /**
+   * Find a matching of rows to columns with the largest total weight
+   * @param weights The weight of matching each row to each column (rows x columns, all rows the same length)
+   * @return The column matched to each row, or -1 if the row is unmatched (only when there are more rows than columns)
+   */
+  public static int[] maxWeightAssignment(double[][] weights){
+    int rows = weights.length;
+    int cols = rows == 0 ? 0 : weights[0].length;
+    int[] match = new int[rows];
+    Arrays.fill(match, -1);
+    if(rows == 0 || cols == 0){ return match; }
+    if(rows <= cols){
+      int[] colOfRow = minCostAssignment(weights, rows, cols, false);
+      System.arraycopy(colOfRow, 0, match, 0, rows);
+    } else {
+      //(solve the transposed problem, so that every row of it is matched)
+      int[] rowOfCol = minCostAssignment(weights, cols, rows, true);
+      for(int c=0; c<cols; c++){ match[rowOfCol[c]] = c; }
+    }
+    return match;
+  }
+
+  /**
+   * The assignment of n rows to m &gt;= n columns with the least total cost, where the cost
+   * of a cell is minus its weight
+   * @param transposed If true, row i column j of the problem is weights[j][i]
+   * @return The column assigned to each of the n rows
+   */
+  private static int[] minCostAssignment(double[][] weights, int n, int m, boolean transposed){
+    //(1-indexed, as usual; row 0 and column 0 are a sentinel)
+    double[] u = new double[n + 1];
+    double[] v = new double[m + 1];
+    int[] rowOf = new int[m + 1];
+    int[] way = new int[m + 1];
+    double[] minSlack = new double[m + 1];
+    boolean[] used = new boolean[m + 1];
+    for(int i=1; i<=n; i++){
+      //--Add Row i
+      rowOf[0] = i;
+      int col = 0;
+      Arrays.fill(minSlack, Double.POSITIVE_INFINITY);
+      Arrays.fill(used, false);
+      //(grow the alternating tree until it reaches a free column)
+      do {
+        used[col] = true;
+        int row = rowOf[col];
+        double delta = Double.POSITIVE_INFINITY;
+        int next = 0;
+        for(int j=1; j<=m; j++){
+          if(!used[j]){
+            double cost = -(transposed ? weights[j - 1][row - 1] : weights[row - 1][j - 1]);
+            double slack = cost - u[row] - v[j];
+            if(slack < minSlack[j]){
+              minSlack[j] = slack;
+              way[j] = col;
+            }
+            if(minSlack[j] < delta){
+              delta = minSlack[j];
+              next = j;
+            }
+          }
+        }
+        for(int j=0; j<=m; j++){
+          if(used[j]){
+            u[rowOf[j]] += delta;
+            v[j] -= delta;
+          } else {
+            minSlack[j] -= delta;
+          }
+        }
+        col = next;
+      } while(rowOf[col] != 0);
+      //(augment along the path)
+      do {
+        int prev = way[col];
+        rowOf[col] = rowOf[prev];
+        col = prev;
+      } while(col != 0);
+    }
+    //--Read Assignment
+    int[] colOf = new int[n];
+    for(int j=1; j<=m; j++){
+      if(rowOf[j] != 0){ colOf[rowOf[j] - 1] = j - 1; }
+    }
+    return colOf;
+  }
+}
@@ -0,0 +1,80 @@
+package cs224n.util;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only list of known size whose elements are only computed (e.g., decoded)
+ * the first time any of them is accessed. Asking for the size does not compute the elements.
+ *
+ * Once the elements are computed, reading them takes no lock.
+ *
+ * The list is serialized as a plain ArrayList of its elements.
+ */
+public abstract class LazyList<E> extends AbstractList<E> implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final int size;
+  //(volatile, so that the elements can be read without the lock once they are set)
+  private volatile List<E> elements = null;
+
+  /**
+   * @param size The number of elements the list will have
+   */
+  protected LazyList(int size){
+    this.size = size;
+  }
+
+  /**
+   * Compute the elements of this list. This is called at most once.
+   * @return The elements, which must number exactly the size given on construction
+   */
+  protected abstract List<E> compute();
+
+  /**
+   * Compute the elements now, if they have not been already
+   * @return This list
+   */
+  public LazyList<E> materialize(){
+    elements();
+    return this;
+  }
+
+  /**
+   * @return True if the elements have been computed
+   */
+  public boolean isMaterialized(){
+    return elements != null;
+  }
+
+  private List<E> elements(){
+    List<E> rtn = elements;
+    if(rtn == null){
+      synchronized(this){
+        rtn = elements;
+        if(rtn == null){
+          List<E> computed = compute();
+          if(computed.size() != size){ throw new IllegalStateException("Lazy list has " + computed.size() + " elements; expected " + size + " (not your fault!)"); }
+          elements = computed;
+          rtn = computed;
+        }
+      }
+    }
+    return rtn;
+  }
+
+  public E get(int index) {
+    return elements().get(index);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  protected Object writeReplace() throws ObjectStreamException {
+    return new ArrayList<E>(elements());
+  }
+}
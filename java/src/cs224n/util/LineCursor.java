@@ -0,0 +1,102 @@
+package cs224n.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a character stream one line at a time, without splitting the whole
+ * input up front. Lines are separated by '\n' only.
+ *
+ * The line returned by nextLine() is a reused buffer, and is only valid until the
+ * next call to the cursor; call toString() on it to keep it.
+ */
+public class LineCursor {
+  private final Reader reader;
+  private final char[] buffer;
+  private int pos = 0;
+  private int limit = 0;
+  private final StringBuilder line = new StringBuilder();
+
+  public LineCursor(Reader reader){
+    this(reader, 8192);
+  }
+
+  public LineCursor(Reader reader, int bufferSize){
+    this.reader = reader;
+    this.buffer = new char[bufferSize];
+  }
+
+  private boolean fill() throws IOException {
+    if(pos < limit){ return true; }
+    int read;
+    do {
+      read = reader.read(buffer, 0, buffer.length);
+    } while(read == 0);
+    if(read < 0){ return false; }
+    pos = 0;
+    limit = read;
+    return true;
+  }
+
+  /**
+   * Read the next line
+   * @return The line (without its newline), or null if the input is exhausted
+   * @throws IOException If the underlying reader fails
+   */
+  public CharSequence nextLine() throws IOException {
+    line.setLength(0);
+    if(!fill()){ return null; }
+    while(fill()){
+      int start = pos;
+      while(pos < limit && buffer[pos] != '\n'){ pos += 1; }
+      line.append(buffer, start, pos - start);
+      if(pos < limit){
+        pos += 1;  // consume the newline
+        return line;
+      }
+    }
+    return line;
+  }
+
+  /**
+   * Skip over lines until (and including) a line equal to the given one,
+   * without buffering the lines skipped.
+   * @param target The line to stop after
+   * @return True if the line was found; false if the input ran out first
+   * @throws IOException If the underlying reader fails
+   */
+  public boolean skipPast(String target) throws IOException {
+    int matched = 0;
+    boolean matching = true;
+    boolean empty = true;
+    while(fill()){
+      char c = buffer[pos];
+      pos += 1;
+      if(c == '\n'){
+        if(matching && matched == target.length()){ return true; }
+        matched = 0;
+        matching = true;
+        empty = true;
+      } else {
+        empty = false;
+        if(matching && matched < target.length() && target.charAt(matched) == c){
+          matched += 1;
+        } else {
+          matching = false;
+        }
+      }
+    }
+    //(last line, without a trailing newline)
+    return !empty && matching && matched == target.length();
+  }
+
+  /**
+   * Check whether a line read from this cursor equals a given String
+   * @param line The line read
+   * @param expected The expected String
+   * @return True if they have the same characters
+   */
+  public static boolean lineEquals(CharSequence line, String expected){
+    return line != null && expected.contentEquals(line);
+  }
+}
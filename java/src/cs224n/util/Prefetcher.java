@@ -0,0 +1,115 @@
+package cs224n.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Iterates over the elements of a RefreshFunction in index order, while a pool
+ * of worker threads computes upcoming elements ahead of the consumer.
+ * This is useful when producing an element (e.g. reading and decoding a document
+ * from disk) is expensive and independent of consuming the previous one.
+ *
+ * At most <code>depth</code> elements are in flight or buffered at any time, so
+ * memory use stays bounded no matter how slow the consumer is.
+ * With zero threads, elements are simply computed on the calling thread.
+ *
+ * Note that the RefreshFunction must be safe to call from multiple threads
+ * at once if more than one thread is used.
+ * A consumer may stop iterating at any time (e.g., on an exception): the worker
+ * threads exit on their own once they have been idle for a moment.
+ */
+public class Prefetcher<E> implements Iterable<E> {
+  private static final AtomicInteger threadCount = new AtomicInteger(0);
+  /** How long a worker waits for work before exiting */
+  private static final long IDLE_SECONDS = 1;
+
+  private final WeakReferenceList.RefreshFunction<E> source;
+  private final int numThreads;
+  private final int depth;
+
+  /**
+   * Create a new prefetcher
+   * @param source The function producing the i'th element
+   * @param numThreads The number of worker threads; 0 computes elements on the consumer's thread
+   * @param depth The maximum number of elements computed ahead of the consumer
+   */
+  public Prefetcher(WeakReferenceList.RefreshFunction<E> source, int numThreads, int depth){
+    if(numThreads < 0){ throw new IllegalArgumentException("Invalid number of threads: " + numThreads); }
+    if(depth < 1){ throw new IllegalArgumentException("Invalid prefetch depth: " + depth); }
+    this.source = source;
+    this.numThreads = numThreads;
+    this.depth = depth;
+  }
+
+  public Iterator<E> iterator() {
+    final int size = source.size();
+    //--Serial Case
+    if(numThreads == 0){
+      return new Iterator<E>(){
+        private int index = 0;
+        public boolean hasNext() { return index < size; }
+        public E next() {
+          if(!hasNext()){ throw new NoSuchElementException("Iterator is empty"); }
+          index += 1;
+          return source.get(index-1);
+        }
+        public void remove() { throw new UnsupportedOperationException("Cannot remove from this iterator"); }
+      };
+    }
+    //--Parallel Case
+    //(if the consumer stops early the pool is never shut down, so idle workers time out
+    // instead; at most depth elements already submitted are still computed)
+    final ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads, numThreads,
+        IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "prefetch-" + threadCount.getAndIncrement());
+        t.setDaemon(true);  // don't hold up the JVM if the consumer stops early
+        return t;
+      }
+    });
+    pool.allowCoreThreadTimeOut(true);
+    return new Iterator<E>(){
+      private final LinkedList<Future<E>> inFlight = new LinkedList<Future<E>>();
+      private int nextToSubmit = 0;
+      { fill(); }
+
+      private void fill(){
+        while(nextToSubmit < size && inFlight.size() < depth){
+          final int index = nextToSubmit;
+          inFlight.addLast(pool.submit(new Callable<E>(){
+            public E call() { return source.get(index); }
+          }));
+          nextToSubmit += 1;
+        }
+        if(inFlight.isEmpty()){ pool.shutdown(); }
+      }
+
+      public boolean hasNext() { return !inFlight.isEmpty(); }
+
+      public E next() {
+        if(!hasNext()){ throw new NoSuchElementException("Iterator is empty"); }
+        E rtn;
+        try {
+          rtn = inFlight.removeFirst().get();
+        } catch (InterruptedException e) {
+          pool.shutdownNow();
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          pool.shutdownNow();
+          Throwable cause = e.getCause();
+          if(cause instanceof RuntimeException){ throw (RuntimeException) cause; }
+          if(cause instanceof Error){ throw (Error) cause; }
+          throw new RuntimeException(cause);
+        }
+        fill();
+        return rtn;
+      }
+
+      public void remove() { throw new UnsupportedOperationException("Cannot remove from this iterator"); }
+    };
+  }
+}
@@ -0,0 +1,63 @@
+package cs224n.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An append-only, two-way map between strings and contiguous integer ids, which
+ * can be shared by many threads (e.g., by documents being decoded in parallel).
+ * Use id(str) to get (or assign) the id of a string, and get(id) to look the string up again.
+ *
+ * Like an Interner, the vocabulary keeps a single canonical instance of every string it has seen;
+ * unlike an Indexer, looking a string up by its id never takes a lock.
+ */
+public class Vocabulary {
+  private final ConcurrentHashMap<String,Integer> ids = new ConcurrentHashMap<String,Integer>();
+  //(written only while holding the lock; a new string is stored before its id is published)
+  private volatile String[] strings = new String[1024];
+  private volatile int size = 0;
+
+  /**
+   * The id of a string, assigning it a new id if it has not been seen before
+   * @param str The string to look up
+   * @return The id of the string
+   */
+  public int id(String str){
+    Integer id = ids.get(str);
+    if(id != null){ return id; }
+    return add(str);
+  }
+
+  private synchronized int add(String str){
+    Integer id = ids.get(str);
+    if(id != null){ return id; }
+    int next = size;
+    String[] current = strings;
+    if(next == current.length){
+      String[] grown = new String[2 * current.length];
+      System.arraycopy(current, 0, grown, 0, current.length);
+      strings = grown;
+      current = grown;
+    }
+    current[next] = str;
+    size = next + 1;
+    ids.put(str, next);
+    return next;
+  }
+
+  /**
+   * The string with the given id
+   * @param id An id returned by id()
+   * @return The canonical instance of the string
+   */
+  public String get(int id){
+    if(id < 0 || id >= size){ throw new IndexOutOfBoundsException("No string with id " + id); }
+    return strings[id];
+  }
+
+  /**
+   * @return The number of distinct strings seen
+   */
+  public int size(){
+    return size;
+  }
+}